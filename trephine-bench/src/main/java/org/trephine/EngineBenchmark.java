@@ -0,0 +1,82 @@
+package org.trephine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Engine lookup and evaluation on an Executor which is never started as a thread.
+ * No applet is needed for these code paths, so the Launcher is simply left out.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+	static final String SMALL = "1 + 2";
+	static final String LARGE;
+	static {
+		StringBuilder sb = new StringBuilder("var total = 0;\n");
+		for (int i=0; i<200; i++) {
+			sb.append("function f").append(i).append("(x) { return x * ").append(i).append(" + ").append(i).append("; }\n");
+			sb.append("total += f").append(i).append("(").append(i).append(");\n");
+		}
+		LARGE = sb.append("total;").toString();
+	}
+
+	private ScriptEngineManager manager;
+	private ScriptContext context;
+	private Executor executor;
+	private ScriptEngine engine;
+
+	@Setup
+	public void setup() {
+		this.manager = new ScriptEngineManager();
+		this.engine = this.manager.getEngineByName("js");
+		if (this.engine==null) throw new IllegalStateException("No js engine - put js.jar and js-engine.jar on the classpath");
+		this.context = this.engine.getContext();
+		this.executor = new Executor(null, new JobRing(16), new HashMap<String,Object>(),
+			new ArrayList<ScriptEngineFactory>(), 128, new Stats(null), 0);
+		this.engine = this.executor.getEngine(this.manager, this.context, "js");
+	}
+
+	@Benchmark
+	public ScriptEngine getEngine() {
+		return this.executor.getEngine(this.manager, this.context, "js");
+	}
+
+	@Benchmark
+	public Object evalSmall() throws ScriptException {
+		return this.engine.eval(SMALL);
+	}
+
+	@Benchmark
+	public Object evalLarge() throws ScriptException {
+		return this.engine.eval(LARGE);
+	}
+
+	@Benchmark
+	public Object evalSmallCached() throws ScriptException {
+		return this.executor.eval(this.engine, "js", SMALL);
+	}
+
+	@Benchmark
+	public Object evalLargeCached() throws ScriptException {
+		return this.executor.eval(this.engine, "js", LARGE);
+	}
+
+}
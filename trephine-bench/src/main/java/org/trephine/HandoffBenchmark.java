@@ -0,0 +1,76 @@
+package org.trephine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Round-trip latency of handing a job to a worker thread and waiting for its result:
+ * the original MonitorDrop/monitor wait against JobRing/Job.await.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+public class HandoffBenchmark {
+
+	private MonitorDrop drop;
+	private JobRing ring;
+	private Thread dropWorker;
+	private Thread ringWorker;
+
+	@Setup
+	public void setup() {
+		this.drop = new MonitorDrop();
+		this.ring = new JobRing(1024);
+		this.dropWorker = new Thread(new Runnable() {
+			public void run() {
+				MonitorDrop.Slot slot;
+				while ((slot = drop.take())!=MonitorDrop.DONE) slot.setResult(Boolean.TRUE);
+			}
+		});
+		this.ringWorker = new Thread(new Runnable() {
+			public void run() {
+				Job job;
+				while ((job = ring.take())!=Job.DONE) {
+					if (job.start()) job.setResult(Boolean.TRUE);
+				}
+			}
+		});
+		this.dropWorker.start();
+		this.ringWorker.start();
+	}
+
+	@TearDown
+	public void tearDown() throws InterruptedException {
+		this.drop.put(MonitorDrop.DONE);
+		this.ring.put(Job.DONE);
+		this.dropWorker.join();
+		this.ringWorker.join();
+	}
+
+	@Benchmark
+	public Object monitorDrop() throws InterruptedException {
+		MonitorDrop.Slot slot = new MonitorDrop.Slot();
+		synchronized (slot) {
+			this.drop.put(slot);
+			while (!slot.finished) slot.wait();
+		}
+		return slot.result;
+	}
+
+	@Benchmark
+	public Object jobRing() {
+		Job job = new Job("js", "true");
+		this.ring.put(job);
+		job.await(0);
+		return job.getResult();
+	}
+
+}
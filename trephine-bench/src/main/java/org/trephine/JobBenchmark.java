@@ -0,0 +1,34 @@
+package org.trephine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Cost of a Job's life cycle on a single thread: creation, start, completion and result retrieval.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class JobBenchmark {
+
+	@Benchmark
+	public Object complete() {
+		Job job = new Job("js", "true");
+		job.start();
+		job.setResult(Boolean.TRUE);
+		job.await(0);
+		return job.getResult();
+	}
+
+	@Benchmark
+	public Object fail() {
+		Job job = new Job("js", "true");
+		job.start();
+		job.setException(new RuntimeException());
+		return job.getException();
+	}
+
+}
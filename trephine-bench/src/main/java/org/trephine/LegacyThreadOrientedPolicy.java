@@ -0,0 +1,46 @@
+package org.trephine;
+
+import java.security.AllPermission;
+import java.security.CodeSource;
+import java.security.PermissionCollection;
+import java.security.Policy;
+import java.security.ProtectionDomain;
+
+/**
+ * The original Launcher.ThreadOrientedPolicy, kept here as the baseline for PolicyBenchmark:
+ * it asks the parent policy and walks the ThreadGroup hierarchy on every call, guarded by a shared,
+ * non-volatile flag.
+ */
+public class LegacyThreadOrientedPolicy extends Policy {
+
+	final private Policy parentPolicy;
+	final private ThreadGroup group;
+
+	private boolean inCheck = false;
+
+	public LegacyThreadOrientedPolicy(Policy policy, ThreadGroup group) {
+		this.parentPolicy = policy;
+		this.group = group;
+	}
+
+	@Override
+	public PermissionCollection getPermissions(CodeSource codesource) {
+		return this.getExtendedPermissions(this.parentPolicy.getPermissions(codesource));
+	}
+
+	@Override
+	public PermissionCollection getPermissions(ProtectionDomain domain) {
+		return this.getExtendedPermissions(this.parentPolicy.getPermissions(domain));
+	}
+
+	private PermissionCollection getExtendedPermissions(PermissionCollection permissions) {
+		if (this.inCheck) return permissions;
+		this.inCheck = true;
+		if (Thread.currentThread().getThreadGroup().parentOf(this.group)) {
+			permissions.add(new AllPermission());
+		}
+		this.inCheck = false;
+		return permissions;
+	}
+
+}
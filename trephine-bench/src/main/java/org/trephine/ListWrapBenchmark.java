@@ -0,0 +1,30 @@
+package org.trephine;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+
+/**
+ * Cost of packaging a result tuple for the browser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ListWrapBenchmark {
+
+	private static final Object RESULT = "result";
+	private static final Exception ERROR = new RuntimeException("error");
+
+	@Benchmark
+	public Object success() {
+		return Launcher.listWrap(RESULT, null);
+	}
+
+	@Benchmark
+	public Object failure() {
+		return Launcher.listWrap(null, ERROR);
+	}
+
+}
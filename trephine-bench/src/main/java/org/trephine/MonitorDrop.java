@@ -0,0 +1,49 @@
+package org.trephine;
+
+/**
+ * The original one-slot, wait/notifyAll hand-off which JobRing replaced, kept here as the baseline
+ * for HandoffBenchmark. Completion is signalled on the job's monitor, exactly as Launcher.exec used to wait.
+ */
+public class MonitorDrop {
+
+	/**
+	 * Stand-in for the original Job, finished under its own monitor.
+	 */
+	public static class Slot {
+		public boolean finished = false;
+		public Object result;
+
+		public synchronized void setResult(Object result) {
+			this.result = result;
+			this.finished = true;
+			this.notifyAll();
+		}
+	}
+
+	public static final Slot DONE = new Slot();
+
+	private Slot slot = null;
+
+	public synchronized Slot take() {
+		while (this.slot==null) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {}
+		}
+		Slot result = this.slot;
+		this.slot = null;
+		this.notifyAll();
+		return result;
+	}
+
+	public synchronized void put( Slot slot ) {
+		while (this.slot!=null) {
+			try {
+				this.wait();
+			} catch (InterruptedException e) {}
+		}
+		this.slot = slot;
+		this.notifyAll();
+	}
+
+}
@@ -0,0 +1,41 @@
+package org.trephine;
+
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The trephine.properties URL checks made at startup: building the anchored patterns and matching
+ * the codebase and page URLs against them. Uses the default pattern from config.properties.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PatternBenchmark {
+
+	static final String WEBSERVER = "(https?\\://(localhost|127.0.0.1)(:[0-9]+)?/|file\\:/+).*";
+
+	private final Pattern pattern = Launcher.urlPattern(WEBSERVER);
+
+	@Benchmark
+	public Pattern compile() {
+		return Launcher.urlPattern(WEBSERVER);
+	}
+
+	@Benchmark
+	public boolean matchAllowed() {
+		return this.pattern.matcher("http://localhost:8080/trephine-it/dist/trephine.jar").matches();
+	}
+
+	@Benchmark
+	public boolean matchRejected() {
+		return this.pattern.matcher("http://example.com/some/long/path/to/a/page.html?query=string").matches();
+	}
+
+}
@@ -0,0 +1,74 @@
+package org.trephine;
+
+import java.io.FilePermission;
+import java.security.CodeSource;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Policy;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Cost of a single permission decision, from several threads at once: the original policy against
+ * ThreadOrientedPolicy, for threads inside and outside the privileged thread group.
+ * The parent is the JVM's default file-based policy, as in a browser.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+public class PolicyBenchmark {
+
+	@Param({"legacy", "cached"})
+	public String policy;
+
+	@Param({"true", "false"})
+	public boolean privileged;
+
+	private Policy subject;
+	private ProtectionDomain domain;
+	private final Permission permission = new FilePermission("/tmp/trephine-bench.txt", "read");
+
+	@Setup
+	public void setup() throws Exception {
+		ThreadGroup current = Thread.currentThread().getThreadGroup();
+		// Only threads whose group contains the policy's group are privileged
+		ThreadGroup group = this.privileged ? current : current.getParent();
+		Policy parent = Policy.getPolicy();
+		this.subject = "legacy".equals(this.policy) ?
+			new LegacyThreadOrientedPolicy(parent, group) :
+			new ThreadOrientedPolicy(parent, new BenchHost(), group);
+		CodeSource source = new CodeSource(PolicyBenchmark.class.getProtectionDomain().getCodeSource().getLocation(), (Certificate[]) null);
+		this.domain = new ProtectionDomain(source, null, PolicyBenchmark.class.getClassLoader(), null);
+	}
+
+	@Benchmark
+	public boolean implies() {
+		return this.subject.implies(this.domain, this.permission);
+	}
+
+	@Benchmark
+	public PermissionCollection getPermissions() {
+		return this.subject.getPermissions(this.domain);
+	}
+
+	/**
+	 * Host which is never destroyed, standing in for the applet.
+	 */
+	static class BenchHost implements Host {
+		public boolean isPrivileged() { return true; }
+		public boolean isDestroyed() { return false; }
+	}
+
+}
@@ -0,0 +1,93 @@
+package org.trephine;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.security.Policy;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * An I/O-heavy script - file metadata lookups and a small read - run under a SecurityManager,
+ * so that every operation goes through the installed policy, as scripts do in the applet.
+ * The benchmark threads are in the privileged thread group, like trephine's executors.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Benchmark)
+@Threads(4)
+@Fork(jvmArgsAppend = "-Djava.security.manager=allow")
+public class PolicyScriptBenchmark {
+
+	@Param({"legacy", "cached"})
+	public String policy;
+
+	private Policy original;
+	private File file;
+	private CompiledScript script;
+
+	@Setup
+	public void setup() throws Exception {
+		this.file = File.createTempFile("trephine-bench", ".txt");
+		FileWriter writer = new FileWriter(this.file);
+		writer.write("trephine");
+		writer.close();
+
+		String path = this.file.getAbsolutePath().replace("\\", "\\\\");
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("js");
+		if (engine==null) throw new IllegalStateException("No js engine - put js.jar and js-engine.jar on the classpath");
+		this.script = ((Compilable) engine).compile(
+			"(function() {\n" +
+			"  var f = new java.io.File('" + path + "'), n = 0;\n" +
+			"  for (var i=0; i<16; i++) { if (f.exists() && f.canRead()) n += f.length(); }\n" +
+			"  var input = new java.io.FileInputStream(f); n += input.read(); input.close();\n" +
+			"  return n;\n" +
+			"})();");
+
+		this.original = Policy.getPolicy();
+		// Installed twice: Policy.setPolicy() asks the policy being replaced for the new policy's own domain,
+		// which here is also this benchmark's domain, so the second install lets that come from the policy under test
+		Policy.setPolicy(this.create());
+		Policy.setPolicy(this.create());
+		System.setSecurityManager(new SecurityManager());
+		// Run once on this thread first: the legacy policy's shared flag is not thread-safe, and a race
+		// while the JDK fills its per-domain permission cache would deny the benchmark threads outright
+		this.script.eval();
+	}
+
+	private Policy create() {
+		ThreadGroup group = Thread.currentThread().getThreadGroup();
+		return "legacy".equals(this.policy) ?
+			new LegacyThreadOrientedPolicy(this.original, group) :
+			new ThreadOrientedPolicy(this.original, new PolicyBenchmark.BenchHost(), group);
+	}
+
+	@TearDown
+	public void tearDown() {
+		System.setSecurityManager(null);
+		Policy.setPolicy(this.original);
+		this.file.delete();
+	}
+
+	@Benchmark
+	public Object ioScript() throws ScriptException {
+		return this.script.eval();
+	}
+
+}
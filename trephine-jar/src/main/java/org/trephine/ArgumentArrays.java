@@ -0,0 +1,91 @@
+package org.trephine;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.SimpleScriptContext;
+
+/**
+ * Turns job arguments into an array native to the engine evaluating them, so that strings, numbers and booleans
+ * reach the script as primitives and args.length, typeof and the like behave the same on every engine.
+ * Which conversion suits an engine is found out by trying each on it once - js.jar's Rhino, then the copy built
+ * into the JDK - rather than guessed from its class name; other engines get the plain Object[].
+ */
+class ArgumentArrays {
+
+	private static final String PROBE = "typeof probe[0]=='string' && probe.length==1";
+
+	private static final ConcurrentMap<Class<?>,Conversion> conversions = new ConcurrentHashMap<Class<?>,Conversion>();
+
+	private interface Conversion {
+		Object apply( Object[] args ) throws Exception;
+	}
+
+	private static final Conversion PLAIN = new Conversion() {
+		public Object apply( Object[] args ) { return args; }
+	};
+
+	private static final Conversion RHINO = new Conversion() {
+		public Object apply( Object[] args ) { return RhinoJson.toArray(args); }
+	};
+
+	/**
+	 * @return The arguments as the engine's own array type, or as they are if it has none trephine knows of.
+	 * @throws Exception If the conversion which suits the engine fails.
+	 */
+	static Object convert( ScriptEngine engine, Object[] args ) throws Exception {
+		return conversion(engine).apply(args);
+	}
+
+	/**
+	 * @return Whether the engine runs on js.jar's Rhino.
+	 */
+	static boolean isRhino( ScriptEngine engine ) {
+		return conversion(engine)==RHINO;
+	}
+
+	private static Conversion conversion( ScriptEngine engine ) {
+		Conversion conversion = conversions.get(engine.getClass());
+		if (conversion==null) {
+			conversion = probe(engine);
+			conversions.put(engine.getClass(), conversion);
+		}
+		return conversion;
+	}
+
+	/**
+	 * Try each conversion on the engine, evaluating a snippet which only succeeds if the array is native to it.
+	 * The engine is the caller's own, so nothing else is evaluating on it meanwhile.
+	 */
+	private static Conversion probe( ScriptEngine engine ) {
+		final String fname = "ArgumentArrays:probe()";
+		if (!"ECMAScript".equalsIgnoreCase(engine.getFactory().getLanguageName())) return PLAIN;
+		if (suits(engine, RHINO)) return RHINO;
+		try {
+			final ReflectiveRhino internal = ReflectiveRhino.jdk(engine.getClass().getClassLoader());
+			Conversion conversion = new Conversion() {
+				public Object apply( Object[] args ) throws Exception { return internal.toArray(args); }
+			};
+			if (suits(engine, conversion)) return conversion;
+		} catch (Exception e) {
+			Log.debug(fname, "no built-in Rhino: {}", e.toString());
+		}
+		Log.debug(fname, "passing arguments to {} as a Java array", engine.getClass().getName());
+		return PLAIN;
+	}
+
+	private static boolean suits( ScriptEngine engine, Conversion conversion ) {
+		try {
+			ScriptContext context = new SimpleScriptContext();
+			context.setAttribute("probe", conversion.apply(new Object[] {"probe"}), ScriptContext.ENGINE_SCOPE);
+			return Boolean.TRUE.equals(engine.eval(PROBE, context));
+		} catch (Exception e) {
+			return false;
+		} catch (LinkageError e) {
+			return false;
+		}
+	}
+
+}
@@ -0,0 +1,55 @@
+package org.trephine;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A group of jobs handed to a single executor in one go and run back-to-back.
+ * Each member job receives its own result or exception; the batch itself finishes once all members have.
+ */
+public class BatchJob extends Job {
+
+	private final List<Job> jobs;
+	private final boolean stopOnFailure;
+
+	/**
+	 * @param jobs The member jobs, in execution order (must not be empty).
+	 * @param stopOnFailure Whether to skip the remaining members once one of them fails.
+	 */
+	public BatchJob(List<Job> jobs, boolean stopOnFailure) {
+		super(jobs.get(0).getLanguage(), null);
+		this.jobs = Collections.unmodifiableList(jobs);
+		this.stopOnFailure = stopOnFailure;
+	}
+
+	/**
+	 * Members are queued together with the batch, so they share its submission time.
+	 */
+	@Override
+	public void markSubmitted() {
+		super.markSubmitted();
+		for (Job job: this.jobs) job.markSubmitted();
+	}
+
+	/**
+	 * Time out members whose deadlines have passed while the batch was queued, or every member if the batch's own has.
+	 */
+	@Override
+	boolean expire(long now) {
+		if (!super.expire(now)) {
+			for (Job job: this.jobs) job.expire(now);
+			return false;
+		}
+		for (Job job: this.jobs) job.complete(null, this.getException());
+		return true;
+	}
+
+	public List<Job> getJobs() {
+		return jobs;
+	}
+
+	public boolean isStopOnFailure() {
+		return stopOnFailure;
+	}
+
+}
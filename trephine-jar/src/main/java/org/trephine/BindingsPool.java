@@ -0,0 +1,56 @@
+package org.trephine;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+/**
+ * Recycles the per-job engine scopes handed out by executors.
+ * A scope is cleared when it comes back, so nothing a job defined can leak into the next one,
+ * and at most the given number of idle scopes are retained.
+ */
+public class BindingsPool {
+
+	private final ConcurrentLinkedQueue<Bindings> idle = new ConcurrentLinkedQueue<Bindings>();
+	private final AtomicInteger size = new AtomicInteger();
+	private final int capacity;
+
+	/**
+	 * @param capacity Maximum number of idle scopes kept for reuse.
+	 */
+	public BindingsPool( int capacity ) {
+		this.capacity = capacity;
+	}
+
+	/**
+	 * @return An empty scope, recycled where possible.
+	 */
+	public Bindings acquire() {
+		Bindings bindings = this.idle.poll();
+		if (bindings==null) return new SimpleBindings();
+		this.size.decrementAndGet();
+		return bindings;
+	}
+
+	/**
+	 * Clear a scope and keep it for reuse, unless the pool is already full.
+	 */
+	public void release( Bindings bindings ) {
+		bindings.clear();
+		if (this.size.incrementAndGet()>this.capacity) {
+			this.size.decrementAndGet();
+			return;
+		}
+		this.idle.offer(bindings);
+	}
+
+	/**
+	 * @return Number of idle scopes currently held.
+	 */
+	public int size() {
+		return this.size.get();
+	}
+
+}
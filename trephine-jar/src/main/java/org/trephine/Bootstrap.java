@@ -0,0 +1,169 @@
+package org.trephine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs the steps of starting up as a graph of phases. Each phase names the phases it needs, which must have
+ * been created before it, so the graph cannot have cycles. Every phase gets its own thread and starts as soon
+ * as all of its prerequisites have succeeded; a phase which fails (or whose prerequisite failed) causes every
+ * phase depending on it to be skipped. Each phase records when it started and how long it took.
+ */
+public class Bootstrap {
+
+	private static final int PENDING = 0;
+	private static final int RUNNING = 1;
+	private static final int DONE = 2;
+	private static final int FAILED = 3;
+	private static final int SKIPPED = 4;
+
+	private static final String[] STATUS_NAMES = { "pending", "running", "done", "failed", "skipped" };
+
+	private final List<Phase> phases = new ArrayList<Phase>();
+	private final AtomicBoolean failed = new AtomicBoolean(false);
+	private final Runnable onFailure;
+	private volatile long started = 0;
+
+	/**
+	 * @param onFailure Run once, on the thread of the first phase to fail, may be null.
+	 */
+	public Bootstrap( Runnable onFailure ) {
+		this.onFailure = onFailure;
+	}
+
+	/**
+	 * Add a phase to the graph. Phases may only be added before start().
+	 * @return The phase, for use as a prerequisite of later ones.
+	 */
+	public synchronized Phase add( Phase phase ) {
+		if (this.started!=0) throw new IllegalStateException("Bootstrap already started");
+		for (Phase before: phase.after) {
+			if (!this.phases.contains(before)) throw new IllegalArgumentException("Phase " + phase.name + " depends on unknown phase " + before.name);
+		}
+		this.phases.add(phase);
+		return phase;
+	}
+
+	/**
+	 * Start every phase. Threads inherit the caller's thread group and context class loader.
+	 */
+	public synchronized void start() {
+		this.started = System.nanoTime();
+		for (final Phase phase: this.phases) {
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					execute(phase);
+				}
+			}, "trephine-bootstrap-" + phase.name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Wait for a phase to finish, one way or another.
+	 * @return Whether it succeeded.
+	 */
+	public boolean await( Phase phase ) {
+		try {
+			phase.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		return phase.status==DONE;
+	}
+
+	/**
+	 * @return Whether any phase has failed.
+	 */
+	public boolean isFailed() {
+		return this.failed.get();
+	}
+
+	/**
+	 * Describe each phase, in the order added, as a JSON object string of the form
+	 * {"properties":{"status":"done","start":0.41,"time":12.5}} (milliseconds since start()).
+	 * Phases which have not run yet have no times.
+	 */
+	public synchronized String getTimings() {
+		StringBuilder sb = new StringBuilder("{");
+		for (Phase phase: this.phases) {
+			if (sb.length()>1) sb.append(',');
+			int status = phase.status;
+			sb.append('"').append(phase.name).append("\":{\"status\":\"").append(STATUS_NAMES[status]).append('"');
+			if (status!=PENDING && status!=SKIPPED) {
+				long end = status==RUNNING ? System.nanoTime() : phase.end;
+				sb.append(",\"start\":").append(millis(phase.start - this.started));
+				sb.append(",\"time\":").append(millis(end - phase.start));
+			}
+			sb.append('}');
+		}
+		return sb.append('}').toString();
+	}
+
+	private void execute( Phase phase ) {
+		final String fname = "Bootstrap:execute()";
+		try {
+			for (Phase before: phase.after) {
+				if (!this.await(before)) {
+					Log.debug(fname, "skipping {}, {} did not succeed", phase.name, before.name);
+					phase.status = SKIPPED;
+					return;
+				}
+			}
+			phase.start = System.nanoTime();
+			phase.status = RUNNING;
+			boolean succeeded = false;
+			try {
+				succeeded = phase.run();
+			} catch (Throwable t) {
+				Log.error(fname, "phase " + phase.name + " failed", t);
+			}
+			phase.end = System.nanoTime();
+			phase.status = succeeded ? DONE : FAILED;
+			Log.debug(fname, "{} {} in {}ms", phase.name, STATUS_NAMES[phase.status], millis(phase.end - phase.start));
+			if (!succeeded && this.failed.compareAndSet(false, true) && this.onFailure!=null) this.onFailure.run();
+		} finally {
+			phase.done.countDown();
+		}
+	}
+
+	private static double millis( long nanos ) {
+		return (nanos / 1000) / 1000.0;
+	}
+
+	/**
+	 * One step of starting up.
+	 */
+	public static abstract class Phase {
+		private final String name;
+		private final Phase[] after;
+		private final CountDownLatch done = new CountDownLatch(1);
+		private volatile int status = PENDING;
+		private volatile long start;
+		private volatile long end;
+
+		/**
+		 * @param name Name used in logs and timings.
+		 * @param after Phases which must succeed before this one runs.
+		 */
+		protected Phase( String name, Phase... after ) {
+			this.name = name;
+			this.after = after;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * Do the work of the phase. A phase which returns false should already have logged why.
+		 * @return Whether the phase succeeded.
+		 */
+		protected abstract boolean run() throws Exception;
+	}
+
+}
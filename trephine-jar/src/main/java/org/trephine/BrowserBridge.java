@@ -0,0 +1,153 @@
+package org.trephine;
+
+import java.applet.Applet;
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The applet's way into the page. LiveConnect's JSObject class, its methods and the applet's window are looked up
+ * by reflection once, on first use, and kept. Callbacks posted to the bridge are not evaluated one by one: they
+ * are collected and sent to the page together, in a single eval, once per flush interval. A callback posted under
+ * a key replaces any callback still waiting under the same key, so a burst of notifications of the same thing
+ * (new output from one job, say) reaches the page only once.
+ */
+public class BrowserBridge {
+
+	public static final long DEFAULT_FLUSH_INTERVAL = 25;
+
+	private final Applet applet;
+	private volatile long interval;
+	private final ScheduledExecutorService flusher;
+
+	private Method eval;
+	private Object window;
+
+	// Callbacks waiting for the next flush, in the order first posted
+	private Map<Object,String> pending = new LinkedHashMap<Object,String>();
+	private boolean scheduled = false;
+
+	/**
+	 * @param interval Milliseconds to collect callbacks for before sending them to the page.
+	 */
+	public BrowserBridge( Applet applet, long interval ) {
+		this.applet = applet;
+		this.interval = Math.max(0, interval);
+		// Created here so that the flushing thread joins the applet's thread group, whoever posts first
+		final ThreadGroup group = Thread.currentThread().getThreadGroup();
+		this.flusher = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			public Thread newThread( Runnable runnable ) {
+				Thread thread = new Thread(group, runnable, "trephine-bridge");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * @param interval Milliseconds to collect callbacks for before sending them to the page.
+	 */
+	public void setFlushInterval( long interval ) {
+		this.interval = Math.max(0, interval);
+	}
+
+	public long getFlushInterval() {
+		return this.interval;
+	}
+
+	/**
+	 * @return The applet's window (a netscape.javascript.JSObject).
+	 * @throws Exception If LiveConnect is unavailable.
+	 */
+	public synchronized Object getWindow() throws Exception {
+		if (this.window==null) {
+			Class<?> jsObject = Class.forName("netscape.javascript.JSObject");
+			Method getWindow = jsObject.getMethod("getWindow", Applet.class);
+			this.eval = jsObject.getMethod("eval", String.class);
+			this.window = getWindow.invoke(jsObject, this.applet);
+		}
+		return this.window;
+	}
+
+	/**
+	 * Evaluate code in the page straight away, on the calling thread.
+	 * @return The result of the evaluation.
+	 * @throws Exception If LiveConnect is unavailable or the code failed.
+	 */
+	public Object eval( String code ) throws Exception {
+		Object window = this.getWindow();
+		return this.eval.invoke(window, new Object[] { code });
+	}
+
+	/**
+	 * Queue code to be evaluated in the page with the next flush.
+	 */
+	public void post( String code ) {
+		this.post(new Object(), code);
+	}
+
+	/**
+	 * Queue code to be evaluated in the page with the next flush, replacing any code still waiting under the same key.
+	 */
+	public void post( Object key, String code ) {
+		synchronized(this) {
+			this.pending.put(key, code);
+			if (this.scheduled) return;
+			this.scheduled = true;
+		}
+		try {
+			this.flusher.schedule(new Runnable() {
+				public void run() {
+					flush();
+				}
+			}, this.interval, TimeUnit.MILLISECONDS);
+		} catch (RuntimeException e) {
+			Log.debug("BrowserBridge:post()", "bridge is shut down, dropping callback - {}", e.toString());
+		}
+	}
+
+	/**
+	 * @return Number of callbacks waiting for the next flush.
+	 */
+	public synchronized int getPending() {
+		return this.pending.size();
+	}
+
+	/**
+	 * Stop flushing. Callbacks still waiting are dropped, since the page is going away.
+	 */
+	public void shutdown() {
+		this.flusher.shutdownNow();
+	}
+
+	/**
+	 * Send everything queued to the page as one script, each callback guarded so that one failing does not stop the rest.
+	 */
+	private void flush() {
+		final String fname = "BrowserBridge:flush()";
+		Map<Object,String> batch;
+		synchronized(this) {
+			batch = this.pending;
+			this.pending = new LinkedHashMap<Object,String>();
+			this.scheduled = false;
+		}
+		if (batch.isEmpty()) return;
+		StringBuilder sb = new StringBuilder();
+		if (batch.size()==1) {
+			sb.append(batch.values().iterator().next());
+		} else {
+			for (String code: batch.values()) sb.append("try{").append(code).append("\n}catch(e){}");
+		}
+		Log.debug(fname, "issuing {} callback(s)", batch.size());
+		try {
+			this.eval(sb.toString());
+		} catch (Exception e) {
+			Log.warn(fname, "problem occurred issuing callbacks", e);
+		}
+	}
+
+}
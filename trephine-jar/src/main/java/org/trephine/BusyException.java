@@ -0,0 +1,15 @@
+package org.trephine;
+
+/**
+ * Outcome of a job turned away because the Dispatcher's queue was full (or dropped to make room for newer work),
+ * so that callers get an immediate answer instead of waiting on an overloaded host.
+ */
+public class BusyException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public BusyException( String message ) {
+		super(message);
+	}
+
+}
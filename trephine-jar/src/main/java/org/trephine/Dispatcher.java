@@ -0,0 +1,569 @@
+package org.trephine;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+
+/**
+ * Owns the pool of Executor workers and routes each Job to one of them.
+ * Every language is given a "home" worker the first time it is seen, so that different languages
+ * land on different threads and one slow engine cannot stall the others. When the home worker is
+ * busy, the job goes to an idle worker instead (preferring one which already holds an engine for
+ * that language), which spreads same-language load across cores.
+ * <p>
+ * A watchdog thread enforces job deadlines, which count from submission: a job whose deadline passes while it
+ * is still queued is timed out and never run, and an overdue running job is completed with a TimeoutException
+ * straight away, its worker is interrupted, and a worker which is still stuck after a grace period is retired
+ * and replaced by a fresh one on the same scheduler, so a runaway script costs one thread rather than the whole pool.
+ * <p>
+ * Callers from the browser submit through offer(), which never blocks: once the queue limit is reached, the
+ * overload policy either rejects the job with a BusyException, runs it on the caller's own thread (only if that
+ * caller was going to wait for the job anyway), or makes room by dropping the oldest background job still waiting.
+ */
+public class Dispatcher {
+
+	/**
+	 * What offer() does with a job arriving while the queue is full.
+	 */
+	public enum Overload {
+		/** Fail the new job at once with a BusyException. */
+		REJECT,
+		/**
+		 * Evaluate the new job at once on a thread of its own in the workers' thread group, so it runs with the same
+		 * permissions as on a worker, and the submitting caller is slowed down by waiting for it. Only done for
+		 * callers which wait for the job anyway (see offer(Job, boolean)); a job from any other caller is rejected.
+		 */
+		CALLER_RUNS,
+		/** Fail the oldest background job still waiting, and queue the new one in its place (rejecting it if there is none). */
+		DROP_OLDEST;
+
+		/**
+		 * @param name Policy name such as "reject", "caller-runs" or "drop-oldest".
+		 * @return The policy, or REJECT if the name is not recognised.
+		 */
+		public static Overload parse( String name ) {
+			if (name==null) return REJECT;
+			name = name.trim().toUpperCase().replace('-', '_');
+			for (Overload policy: values()) {
+				if (policy.name().equals(name)) return policy;
+			}
+			return REJECT;
+		}
+	}
+
+	private static final int RING_CAPACITY = 1024;
+	private static final int RESULT_CACHE_SIZE = 256;
+	private static final int IDLE_VIRTUAL_ENGINES = 16;
+	private static final int DEFAULT_QUEUE_LIMIT = 512;
+	private static final long WATCHDOG_TICK = TimeUnit.MILLISECONDS.toNanos(25);
+	private static final long RETIRE_GRACE = TimeUnit.MILLISECONDS.toNanos(2000);
+
+	private static volatile boolean guarded = false;
+
+	final private Executor[] workers;
+	final private Scheduler[] schedulers;
+	final private Map<String,Integer> affinity = new HashMap<String,Integer>();
+	final private List<ScriptEngineFactory> factories = new CopyOnWriteArrayList<ScriptEngineFactory>();
+	final private Map<String,long[]> timings = new ConcurrentHashMap<String,long[]>();
+	final private Map<String,String> languages = new ConcurrentHashMap<String,String>();
+	final private Stats stats = new Stats(this);
+	final private ResultCache results = new ResultCache(RESULT_CACHE_SIZE, this.stats, this);
+
+	final private Host host;
+	final private HashMap<String,Object> environment;
+	final private int scriptCacheSize;
+	final private BindingsPool scopes;
+	final private Watchdog watchdog;
+	final private VirtualPool virtual;
+	final private ConcurrentLinkedQueue<Job> background = new ConcurrentLinkedQueue<Job>();
+	final private ConcurrentLinkedQueue<Job> queued = new ConcurrentLinkedQueue<Job>();
+
+	private int nextHome = 0;
+	private int generation = 0;
+	private volatile long defaultTimeout = 0;
+	private volatile Set<String> virtualLanguages = Collections.emptySet();
+	private volatile int queueLimit = DEFAULT_QUEUE_LIMIT;
+	private volatile Overload overload = Overload.REJECT;
+
+	public Dispatcher( Host host, int size, int scriptCacheSize, HashMap<String,Object> environment ) {
+		if (size<1) size = 1;
+		this.host = host;
+		this.environment = environment;
+		this.scriptCacheSize = scriptCacheSize;
+		this.scopes = new BindingsPool(size * 2);
+		this.workers = new Executor[size];
+		this.schedulers = new Scheduler[size];
+		for (int i=0; i<size; i++) {
+			this.schedulers[i] = new Scheduler(new JobRing(RING_CAPACITY), RING_CAPACITY);
+			this.workers[i] = new Executor(host, this.schedulers[i], environment, this.factories, scriptCacheSize, this.stats, i, 0, this.scopes);
+		}
+		this.virtual = new VirtualPool(environment, this.factories, this.scopes, this.stats, scriptCacheSize, IDLE_VIRTUAL_ENGINES);
+		this.watchdog = new Watchdog();
+	}
+
+	/**
+	 * Start all worker threads.
+	 */
+	public void start() {
+		for (Executor worker: this.workers) worker.start();
+		this.watchdog.start();
+		this.stats.register();
+	}
+
+	/**
+	 * Install engine-level limits (currently Rhino's instruction observer) before the first engine is created.
+	 * Looked up by name, since the engine classes may not be on the classpath at all.
+	 * @return Whether running scripts can be interrupted, rather than only abandoned.
+	 */
+	public static boolean installScriptGuards() {
+		try {
+			Object installed = Class.forName("org.trephine.RhinoGuard").getMethod("install").invoke(null);
+			guarded = Boolean.TRUE.equals(installed);
+			return guarded;
+		} catch (Throwable t) {
+			Log.debug("Dispatcher:installScriptGuards()", "script guards unavailable - {}", t.toString());
+			return false;
+		}
+	}
+
+	/**
+	 * @return Whether the engine's scripts can be interrupted and held to an instruction limit. Only js.jar's Rhino
+	 * can, once the guard is installed; the JDK's built-in Rhino has a global ContextFactory of its own which
+	 * trephine cannot extend, so its scripts - like those of other engines - run until they finish.
+	 */
+	static boolean isGuarded( ScriptEngine engine ) {
+		return guarded && ArgumentArrays.isRhino(engine);
+	}
+
+	/**
+	 * @param timeout Deadline in milliseconds for jobs which do not set their own, or zero for none.
+	 */
+	public void setDefaultTimeout( long timeout ) {
+		this.defaultTimeout = Math.max(0, timeout);
+	}
+
+	public long getDefaultTimeout() {
+		return this.defaultTimeout;
+	}
+
+	/**
+	 * Run every job in the given languages on virtual threads, where the JVM has them.
+	 * @param languages Language names (as used in jobs), case insensitive.
+	 */
+	public void setVirtualLanguages( Collection<String> languages ) {
+		Set<String> names = new HashSet<String>();
+		for (String language: languages) {
+			if (language.trim().length()>0) names.add(language.trim().toLowerCase());
+		}
+		this.virtualLanguages = names;
+		if (!names.isEmpty() && !this.virtual.isSupported()) Log.info("Dispatcher:setVirtualLanguages()", "virtual threads unavailable, {} will run on executors", names);
+	}
+
+	/**
+	 * @param limit Number of waiting jobs beyond which offer() applies the overload policy (at most the ring size).
+	 */
+	public void setQueueLimit( int limit ) {
+		this.queueLimit = Math.max(1, Math.min(limit, RING_CAPACITY));
+	}
+
+	public int getQueueLimit() {
+		return this.queueLimit;
+	}
+
+	public void setOverload( Overload overload ) {
+		this.overload = overload==null ? Overload.REJECT : overload;
+	}
+
+	public Overload getOverload() {
+		return this.overload;
+	}
+
+	/**
+	 * @return The pool running jobs on virtual threads.
+	 */
+	public VirtualPool getVirtualPool() {
+		return this.virtual;
+	}
+
+	/**
+	 * Queue a job with the most appropriate worker, waiting only if that worker's ring is full.
+	 * The worker's Scheduler then decides when it runs, by priority lane and caller.
+	 * A cacheable job may instead be answered from the ResultCache, or share the execution of an identical one,
+	 * and a job asking for a virtual thread (or in a language configured for them) goes to the VirtualPool.
+	 * @param job The job to execute.
+	 */
+	public void put( Job job ) {
+		this.submit(job, true, false);
+	}
+
+	/**
+	 * Queue a job as put() does, but without ever waiting: if the queue limit has been reached, the overload
+	 * policy decides what happens (see Overload). The queue depth is read without locking, so the limit may
+	 * be overshot by a few jobs when many callers arrive at once.
+	 * @return False if the job was turned away, in which case it has already finished with a BusyException.
+	 */
+	public boolean offer( Job job ) {
+		return this.offer(job, false);
+	}
+
+	/**
+	 * Queue a job as offer() does, saying whether it may be evaluated at once on the caller's behalf under the
+	 * CALLER_RUNS policy. Only a caller about to block on the job should allow this, since its wait is what slows
+	 * it down - never a thread serving other callers, such as a socket selector, nor one which returns before the
+	 * job finishes.
+	 * @param callerMayRun Whether the job may be run at once for its caller.
+	 * @return False if the job was turned away, in which case it has already finished with a BusyException.
+	 */
+	public boolean offer( Job job, boolean callerMayRun ) {
+		return this.submit(job, false, callerMayRun);
+	}
+
+	private boolean submit( Job job, boolean wait, boolean callerMayRun ) {
+		final String fname = "Dispatcher:submit()";
+		if (job.getTimeout()<0) job.setTimeout(this.defaultTimeout);
+		if (job.getCacheTtl()>0 && !(job instanceof BatchJob)) {
+			job.markSubmitted();
+			job = this.results.claim(job, this.canonicalLanguage(job.getLanguage()));
+			if (job==null) {
+				Log.debug(fname, "answered from cache or joined a job in flight");
+				return true;
+			}
+		}
+		if (this.virtual.isSupported() && !(job instanceof BatchJob) && (job.isVirtual() || this.isVirtualLanguage(job.getLanguage()))) {
+			Log.debug(fname, "starting {} job on a virtual thread", job.getLanguage());
+			job.markSubmitted();
+			this.virtual.submit(job);
+			return true;
+		}
+		int index = this.route(job.getLanguage());
+		Log.debug(fname, "routing {} job to worker {}", job.getLanguage(), index);
+		if (job instanceof BatchJob) {
+			for (Job member: ((BatchJob) job).getJobs()) {
+				if (member.getTimeout()<0) member.setTimeout(this.defaultTimeout);
+				member.setLane(job.getLane());
+			}
+		}
+		job.markSubmitted();
+		// Remembered so the watchdog can time it out if it is still waiting when its deadline passes
+		if (job.getTimeout()>0 || job instanceof BatchJob) this.queued.offer(job);
+		if (wait) {
+			this.schedulers[index].put(job);
+			return true;
+		}
+		if (this.getQueueDepth()<this.queueLimit && this.queue(index, job)) return true;
+		return this.overloaded(index, job, callerMayRun);
+	}
+
+	/**
+	 * Apply the overload policy to a job which did not fit in the queue.
+	 */
+	private boolean overloaded( int index, Job job, boolean callerMayRun ) {
+		final String fname = "Dispatcher:overloaded()";
+		switch (this.overload) {
+		case CALLER_RUNS:
+			if (job instanceof BatchJob || !callerMayRun) break;
+			Log.debug(fname, "queue full, running job {} beside the workers for its caller", job.getId());
+			this.stats.recordCallerRun();
+			this.virtual.runBeside(job, this.workers[0].getThreadGroup());
+			return true;
+		case DROP_OLDEST:
+			if (!this.dropOldestBackground()) break;
+			if (this.queue(index, job)) return true;
+			break;
+		default:
+			break;
+		}
+		Log.debug(fname, "queue full, rejecting job {}", job.getId());
+		this.stats.recordRejection();
+		BusyException busy = new BusyException("Too many jobs waiting (limit " + this.queueLimit + "), try again later.");
+		if (job instanceof BatchJob) {
+			for (Job member: ((BatchJob) job).getJobs()) member.complete(null, busy);
+		}
+		job.complete(null, busy);
+		return false;
+	}
+
+	/**
+	 * Queue a job without waiting, remembering background jobs in case they have to be dropped later.
+	 */
+	private boolean queue( int index, Job job ) {
+		if (!this.schedulers[index].offer(job)) return false;
+		if (job.getLane()==Scheduler.BACKGROUND && this.overload==Overload.DROP_OLDEST) this.background.offer(job);
+		return true;
+	}
+
+	/**
+	 * Fail the oldest background job which has not started yet. Its worker skips it when it gets to it.
+	 * @return Whether a job was dropped.
+	 */
+	private boolean dropOldestBackground() {
+		Job job;
+		while ((job = this.background.poll())!=null) {
+			BusyException busy = new BusyException("Dropped to make room for newer jobs.");
+			if (!job.drop(busy)) continue;
+			if (job instanceof BatchJob) {
+				for (Job member: ((BatchJob) job).getJobs()) member.complete(null, busy);
+			}
+			this.stats.recordDrop();
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Create the named engines in the background, one thread per engine, each on the home worker of its language.
+	 * Workers keep taking jobs while this happens; an engine only becomes visible to its worker once it is ready.
+	 * @param names Language names of the engines to preload.
+	 * @param warmups Optional warm-up code per language name, evaluated once on the fresh engine.
+	 */
+	public void preload( final ScriptEngineManager manager, final ScriptContext context, List<String> names, final Map<String,String> warmups ) {
+		for (String n: names) {
+			final String name = n.trim();
+			if (name.length()==0) continue;
+			final Executor worker = this.workers[this.home(name.toLowerCase())];
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					final String fname = "Dispatcher:preload()";
+					long[] timing = worker.preload(manager, context, name, warmups.get(name));
+					if (timing==null) {
+						Log.debug(fname, "nothing preloaded for {}", name);
+						return;
+					}
+					timings.put(name, timing);
+				}
+			}, "trephine-preload-" + name);
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Describe how long each preloaded engine took to start, as a JSON object string of the form
+	 * {"python":{"create":812,"warmup":120}} (milliseconds).
+	 */
+	public String getEngineTimings() {
+		StringBuilder sb = new StringBuilder("{");
+		for (Map.Entry<String,long[]> entry: this.timings.entrySet()) {
+			if (sb.length()>1) sb.append(',');
+			sb.append('"').append(entry.getKey().replace("\\", "\\\\").replace("\"", "\\\""))
+				.append("\":{\"create\":").append(entry.getValue()[0])
+				.append(",\"warmup\":").append(entry.getValue()[1]).append('}');
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Signal every worker to finish.
+	 */
+	public void shutdown() {
+		this.watchdog.halt();
+		for (Scheduler scheduler: this.schedulers) scheduler.put( Job.DONE );
+		this.stats.unregister();
+	}
+
+	/**
+	 * @return Number of jobs waiting for all workers.
+	 */
+	public int getQueueDepth() {
+		int depth = 0;
+		for (Scheduler scheduler: this.schedulers) depth += scheduler.size();
+		return depth;
+	}
+
+	/**
+	 * @param lane Scheduler.INTERACTIVE or Scheduler.BACKGROUND.
+	 * @return Number of jobs waiting in the given lane, across all workers.
+	 */
+	public int getQueueDepth( int lane ) {
+		int depth = 0;
+		for (Scheduler scheduler: this.schedulers) depth += scheduler.size(lane);
+		return depth;
+	}
+
+	public Stats getStats() {
+		return this.stats;
+	}
+
+	public ResultCache getResultCache() {
+		return this.results;
+	}
+
+	/**
+	 * @return The number of workers in the pool.
+	 */
+	public int size() {
+		return this.workers.length;
+	}
+
+	/**
+	 * Pick a worker for the given language.
+	 * @param language The language name as supplied by the caller.
+	 * @return Index of the chosen worker.
+	 */
+	private synchronized int route( String language ) {
+		String name = language==null ? "" : language.trim();
+		int home = this.home(name.toLowerCase());
+		if (this.isIdle(home)) return home;
+		int fallback = -1;
+		for (int i=0; i<this.workers.length; i++) {
+			if (i==home || !this.isIdle(i)) continue;
+			if (this.workers[i].hasEngine(name)) return i;
+			if (fallback<0) fallback = i;
+		}
+		return fallback<0 ? home : fallback;
+	}
+
+	/**
+	 * Resolve any of a language's names to its canonical name, as the workers do (see Executor.resolve()).
+	 * @return The canonical name, or the trimmed name itself if no engine answers to it (yet).
+	 */
+	String canonicalLanguage( String language ) {
+		String name = language==null ? "" : language.trim();
+		String canonicalName = this.languages.get(name);
+		if (canonicalName!=null) return canonicalName;
+		ScriptEngineManager manager;
+		synchronized(this.environment) {
+			manager = (ScriptEngineManager) this.environment.get("manager");
+		}
+		List<ScriptEngineFactory> factories = new ArrayList<ScriptEngineFactory>();
+		if (manager!=null) factories.addAll(manager.getEngineFactories());
+		factories.addAll(this.factories);
+		for (ScriptEngineFactory factory: factories) {
+			if (!factory.getNames().contains(name)) continue;
+			this.languages.put(name, factory.getLanguageName());
+			return factory.getLanguageName();
+		}
+		return name;
+	}
+
+	/**
+	 * Find the home worker for a language, assigning the next one in turn if it has none yet.
+	 * @param key Lower-cased language name.
+	 */
+	private synchronized int home( String key ) {
+		Integer home = this.affinity.get(key);
+		if (home==null) {
+			home = this.nextHome;
+			this.nextHome = (this.nextHome + 1) % this.workers.length;
+			this.affinity.put(key, home);
+		}
+		return home;
+	}
+
+	private boolean isVirtualLanguage( String language ) {
+		Set<String> languages = this.virtualLanguages;
+		return !languages.isEmpty() && language!=null && languages.contains(language.trim().toLowerCase());
+	}
+
+	private boolean isIdle( int index ) {
+		return !this.workers[index].isBusy() && this.schedulers[index].isEmpty();
+	}
+
+	/**
+	 * Replace a worker which is still stuck on a job that has already been completed for it.
+	 * The old thread cannot be killed safely; it is left to unwind on its own (at low priority) and
+	 * exits as soon as its script returns, without taking any further jobs.
+	 */
+	private synchronized void retire( int index, Job job ) {
+		final String fname = "Dispatcher:retire()";
+		Executor worker = this.workers[index];
+		if (!worker.retire(job)) return;
+		BatchJob batch = worker.getCurrentBatch();
+		if (batch!=null) {
+			for (Job member: batch.getJobs()) member.cancel();
+			batch.cancel();
+		}
+		Executor replacement = new Executor(this.host, this.schedulers[index], this.environment, this.factories, this.scriptCacheSize, this.stats, index, ++this.generation, this.scopes);
+		this.workers[index] = replacement;
+		replacement.start();
+		try {
+			worker.setPriority(Thread.MIN_PRIORITY);
+		} catch (SecurityException e) {
+			Log.debug(fname, "unable to lower priority of {}", worker.getName());
+		}
+		this.stats.recordRetirement();
+		Log.warn(fname, "{} did not return from job {}, replaced by {}", worker.getName(), job.getId(), replacement.getName());
+	}
+
+	/**
+	 * Polls the workers every WATCHDOG_TICK, timing out overdue jobs and retiring workers which stay stuck.
+	 * Its bookkeeping is only ever touched from its own thread.
+	 */
+	private class Watchdog extends Thread {
+
+		private volatile boolean running = true;
+		private final Job[] abandoned = new Job[workers.length];
+		private final long[] abandonedAt = new long[workers.length];
+
+		Watchdog() {
+			super("trephine-watchdog");
+			this.setDaemon(true);
+		}
+
+		public void run() {
+			while (this.running && (host==null || !host.isDestroyed())) {
+				LockSupport.parkNanos(this, WATCHDOG_TICK);
+				this.check(System.nanoTime());
+			}
+		}
+
+		void halt() {
+			this.running = false;
+			LockSupport.unpark(this);
+		}
+
+		private void check( long now ) {
+			virtual.check(now);
+			// Forget background jobs which have started or finished, they can no longer be dropped
+			for (Iterator<Job> i = background.iterator(); i.hasNext(); ) {
+				if (!i.next().isPending()) i.remove();
+			}
+			// Time out queued jobs whose deadlines have passed, and forget those which have started or finished
+			for (Iterator<Job> i = queued.iterator(); i.hasNext(); ) {
+				Job job = i.next();
+				if (job.expire(now)) stats.recordTimeout();
+				if (!job.isPending()) i.remove();
+			}
+			for (int i=0; i<this.abandoned.length; i++) {
+				Job job = workers[i].getCurrentJob();
+				if (job==null) {
+					this.abandoned[i] = null;
+					continue;
+				}
+				if (!job.isFinished()) {
+					if (!job.isOverdue(now)) continue;
+					String message = "Job " + job.getId() + " exceeded its deadline of " + job.getTimeout() + "ms.";
+					if (job.complete(null, new TimeoutException(message))) stats.recordTimeout();
+				}
+				// The job is finished but its worker is still inside it - either about to return, or stuck
+				if (this.abandoned[i]!=job) {
+					this.abandoned[i] = job;
+					this.abandonedAt[i] = now;
+					workers[i].interruptJob(job);
+				} else if (now - this.abandonedAt[i] >= RETIRE_GRACE) {
+					retire(i, job);
+					this.abandoned[i] = null;
+				}
+			}
+		}
+
+	}
+
+}
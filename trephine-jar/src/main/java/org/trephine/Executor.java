@@ -1,33 +1,82 @@
 package org.trephine;
 
-import java.lang.reflect.Method;
-import java.net.URL;
-import java.net.URLClassLoader;
-import java.util.ArrayList;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+import javax.script.SimpleScriptContext;
 
+/**
+ * Worker thread which takes jobs from its Scheduler and evaluates them.
+ * Each worker owns a ScriptContext which all of its engines share: the global scope is a snapshot of the
+ * host's environment (the same for every worker) which scripts may shadow but never change, and the engine
+ * scope is swapped for a fresh one, drawn from a BindingsPool, for each job - so workers never touch each
+ * other's state and nothing a job defines outlives it.
+ */
 public class Executor extends Thread {
 
-	final private Launcher applet;
-	final private Drop drop;
+	// Engine classes already reported by checkGuards()
+	private static final ConcurrentMap<Class<?>,Boolean> unguarded = new ConcurrentHashMap<Class<?>,Boolean>();
+
+	final private Host host;
+	final private Scheduler scheduler;
 	final private HashMap<String,Object> environment;
 	
-	final private Map<String,String> names = new HashMap<String,String>();
-	final private Map<String,ScriptEngine> engines = new HashMap<String,ScriptEngine>();
+	final private int index;
+	
+	final private ConcurrentMap<String,String> names = new ConcurrentHashMap<String,String>();
+	final private ConcurrentMap<String,ScriptEngine> engines = new ConcurrentHashMap<String,ScriptEngine>();
+	
+	final private List<ScriptEngineFactory> factories;
+	final private ScriptCache scripts;
+	final private Stats stats;
+	final private BindingsPool scopes;
+	final private ScriptContext scriptContext = new SimpleScriptContext();
+	final private Bindings idleScope = new SimpleBindings();
+	private boolean globalsBound = false;
+	
+	private volatile boolean busy = false;
+	private volatile Job current;
+	private volatile BatchJob currentBatch;
+	private volatile boolean retired = false;
 	
-	final private List<ScriptEngineFactory> factories = new ArrayList<ScriptEngineFactory>();
+	final private int generation;
 
-	public Executor( Launcher applet, Drop drop, HashMap<String,Object> environment ) {
-		this.applet = applet;
-		this.drop = drop;
+	public Executor( Host host, JobRing ring, HashMap<String,Object> environment, List<ScriptEngineFactory> factories, int scriptCacheSize, Stats stats, int index ) {
+		this(host, new Scheduler(ring, ring.capacity()), environment, factories, scriptCacheSize, stats, index, 0, new BindingsPool(1));
+	}
+
+	/**
+	 * @param generation Zero for an original worker, counting up for each replacement of a retired one.
+	 * @param scopes Pool of per-job engine scopes, usually shared by all workers of a Dispatcher.
+	 */
+	Executor( Host host, Scheduler scheduler, HashMap<String,Object> environment, List<ScriptEngineFactory> factories, int scriptCacheSize, Stats stats, int index, int generation, BindingsPool scopes ) {
+		super("trephine-executor-" + index + (generation>0 ? "." + generation : ""));
+		this.host = host;
+		this.scheduler = scheduler;
 		this.environment = environment;
+		this.factories = factories;
+		this.index = index;
+		this.generation = generation;
+		this.scripts = new ScriptCache(scriptCacheSize);
+		this.stats = stats;
+		this.scopes = scopes;
+		this.scriptContext.setBindings(this.idleScope, ScriptContext.ENGINE_SCOPE);
 	}
 	
 	public void run() {
@@ -35,88 +84,347 @@ public class Executor extends Thread {
 		final String fname = "Executor:run()";
 		final Thread thread = Thread.currentThread();
 
-		Launcher.debug(fname, "START - " + thread);
+		Log.debug(fname, "START - {}", thread);
 
-		Launcher.debug(fname, "waiting for environment setup...");
+		Log.debug(fname, "waiting for environment setup...");
 		synchronized(this.environment) {
-			while (this.environment.get("initialized")==null && !this.applet.isDestroyed()) {
+			while (this.environment.get("initialized")==null && !this.host.isDestroyed()) {
 				try {
 					this.environment.wait();
 				} catch (InterruptedException e) {
-					e.printStackTrace(System.out);
+					Log.warn(fname, "interrupted while waiting for environment setup", e);
 				}
 			}
 		}
 		
-		if (applet.isDestroyed()) {
-			Launcher.debug(fname, "END - applet destroyed before initialization");
+		if (this.host.isDestroyed()) {
+			Log.debug(fname, "END - host destroyed before initialization");
 			return;
 		}
 		
 		ScriptEngineManager manager = (ScriptEngineManager) this.environment.get("manager");
 		ScriptContext context = (ScriptContext) this.environment.get("context");
 		
-		Launcher.debug(fname, "initializing engine mappings");
+		// Lets scripts reach classes in jars added later, e.g. through Packages.*
+		this.setContextClassLoader(classLoader(this.environment));
+		
+		Log.debug(fname, "initializing engine mappings");
 		this.setupMappings(manager);
+		this.bindGlobals(context);
 		
+		// Only the first worker may adopt the engine which evaluated Launcher.js, the rest create their own.
+		// A replacement never does, since the worker it replaces may still be running inside that engine.
 		String canonicalName = this.names.get("js");
-		Launcher.debug(fname, "pre-setting reference for " + canonicalName + " engine");
-		if ( canonicalName!=null ) {
+		if ( canonicalName!=null && this.index==0 && this.generation==0 ) {
+			Log.debug(fname, "pre-setting reference for {} engine", canonicalName);
 			ScriptEngine engine = (ScriptEngine) this.environment.get("engine");
+			engine.setContext(this.scriptContext);
 			this.engines.put(canonicalName, engine);
 		}
 
-		Launcher.debug(fname, "preloading selected engines");
-		for (String name: this.applet.getEngines()) this.getEngine(manager, context, name); 
 			
-		Launcher.debug(fname, "waiting for a job to do...");
-		Job job = this.drop.take();
+		Log.debug(fname, "waiting for a job to do...");
+		Job job = this.scheduler.take();
 		while ( job!=null && job!=Job.DONE ) {
 		
-			Launcher.debug(fname, "found Job, starting...");
+			if (job.expire(System.nanoTime())) {
+				Log.debug(fname, "skipping overdue Job");
+				this.stats.recordTimeout();
+				job = this.scheduler.take();
+				continue;
+			}
+			if (!job.start()) {
+				Log.debug(fname, "skipping cancelled Job");
+				job = this.scheduler.take();
+				continue;
+			}
 
-			synchronized (job) {
-				try {
-					ScriptEngine engine = this.getEngine(manager, context, job.getLanguage());
-					if (engine==null) throw new RuntimeException("Unable to procure script engine for language " + job.getLanguage());
-					Launcher.debug(fname, "evaluating job code...");
-					Object result = engine.eval(job.getCode());
-					Launcher.debug(fname, "setting job result");
-					job.setResult( result );
-				} catch (Exception e) {
-					Launcher.debug(fname, "error evaluating code - " + e.getMessage());
-					e.printStackTrace(System.out);
-					job.setException(e);
-				}
+			Log.debug(fname, "found Job, starting...");
+			job.markDequeued();
+			this.busy = true;
+
+			// A batch shares one scope between its members, so that later snippets can use what earlier ones defined
+			Bindings scope = this.scopes.acquire();
+			this.scriptContext.setBindings(scope, ScriptContext.ENGINE_SCOPE);
+			try {
+				if (job instanceof BatchJob) this.executeBatch((BatchJob) job, manager, context);
+				else this.execute(job, manager, context);
+			} finally {
+				this.scriptContext.setBindings(this.idleScope, ScriptContext.ENGINE_SCOPE);
+				this.scopes.release(scope);
 			}
 		
-			Launcher.debug(fname, "finished executing Job!");
+			this.busy = false;
+			Log.debug(fname, "finished executing Job!");
+			
+			// Clear any interrupt the watchdog aimed at the job just finished, so it cannot hit the next one
+			Thread.interrupted();
+			if (this.retired) {
+				Log.debug(fname, "END - retired, a replacement has taken over the scheduler");
+				return;
+			}
 
-			job = this.drop.take();
+			job = this.scheduler.take();
 		}
 		
-		Launcher.debug(fname, "END");
+		Log.debug(fname, "END");
 	}
 
-	private ScriptEngine getEngine(ScriptEngineManager manager, ScriptContext context, String name) {
+	/**
+	 * Evaluate a single job and record its outcome.
+	 */
+	private void execute(Job job, ScriptEngineManager manager, ScriptContext context) {
+		final String fname = "Executor:execute()";
+		this.current = job;
+		Object result = null;
+		Exception exception = null;
+		Writer writer = this.scriptContext.getWriter();
+		Writer errorWriter = this.scriptContext.getErrorWriter();
+		captureOutput(this.scriptContext, job);
+		try {
+			ScriptEngine engine = this.getEngine(manager, context, job.getLanguage());
+			if (engine==null) throw new RuntimeException("Unable to procure script engine for language " + job.getLanguage());
+			Log.debug(fname, "evaluating job code...");
+			checkGuards(engine, job);
+			job.markEvalStart();
+			if (job.getArgs()!=null) this.bindArguments(engine, job.getArgs());
+			// Only kept once fully converted, so that a failed conversion leaves no result behind
+			Object value = this.eval(engine, job.getLanguage(), job.getCode());
+			if (job.isJsonResult()) value = JsonWriter.write(value, job.getJsonDepth(), job.getJsonSize());
+			result = value;
+		} catch (Exception e) {
+			Log.debug(fname, "error evaluating code", e);
+			if (job.getEvalStartTime()==0) job.markEvalStart();
+			exception = e;
+		} catch (ScriptAbortedError e) {
+			Log.debug(fname, "evaluation aborted - {}", e.getMessage());
+			if (job.getEvalStartTime()==0) job.markEvalStart();
+			exception = new ScriptException(e.getMessage());
+		} finally {
+			// Leave the job before completing it, under the lock interruptJob() takes: once the job is finished the
+			// watchdog may aim an interrupt at it, which must neither arrive now nor linger to abort the next batch member
+			synchronized(this) {
+				this.current = null;
+				Thread.interrupted();
+			}
+			this.scriptContext.setWriter(writer);
+			this.scriptContext.setErrorWriter(errorWriter);
+		}
+		Log.debug(fname, "setting job result");
+		if (!job.complete(result, exception)) Log.debug(fname, "job was cancelled or timed out before evaluation finished");
+		this.stats.record(job);
+	}
+
+	/**
+	 * Run each member of a batch back-to-back, optionally skipping the rest after the first failure.
+	 */
+	private void executeBatch(BatchJob batch, ScriptEngineManager manager, ScriptContext context) {
+		final String fname = "Executor:executeBatch()";
+		boolean failed = false;
+		this.currentBatch = batch;
+		for (Job job: batch.getJobs()) {
+			if (this.retired) break;
+			if (failed && batch.isStopOnFailure()) {
+				job.complete(null, new CancellationException("Skipped after an earlier job in the batch failed."));
+				continue;
+			}
+			// Members are timed out, not run, once their deadline has passed - including while earlier ones ran
+			if (job.expire(System.nanoTime())) {
+				this.stats.recordTimeout();
+				failed = true;
+				continue;
+			}
+			if (!job.start()) continue;
+			job.markDequeued();
+			this.execute(job, manager, context);
+			if (!job.getSuccess()) failed = true;
+		}
+		this.currentBatch = null;
+		Log.debug(fname, "batch of {} finished{}", batch.getJobs().size(), (failed ? " with failures" : ""));
+		batch.complete(null, null);
+	}
+
+	/**
+	 * Evaluate code, compiling it through the engine's Compilable interface (when supported) and
+	 * reusing a cached CompiledScript when the same code has been seen before.
+	 */
+	Object eval(ScriptEngine engine, String language, String code) throws ScriptException {
+		final String fname = "Executor:eval()";
+		if (!(engine instanceof Compilable) || !this.scripts.isEnabled()) return engine.eval(code);
+		String canonicalName = this.names.get(language.trim());
+		CompiledScript script = this.scripts.get(canonicalName, code);
+		if (script==null) {
+			Log.debug(fname, "compiling {} script", canonicalName);
+			script = ((Compilable) engine).compile(code);
+			this.scripts.put(canonicalName, code, script);
+		}
+		return script.eval();
+	}
+
+	/**
+	 * Drop an instruction limit the engine cannot enforce (see Dispatcher.isGuarded()) rather than let the job
+	 * appear limited, saying so once per engine class.
+	 */
+	static void checkGuards(ScriptEngine engine, Job job) {
+		if (Dispatcher.isGuarded(engine)) return;
+		if (unguarded.putIfAbsent(engine.getClass(), Boolean.TRUE)==null) {
+			Log.warn("Executor:checkGuards()", "{} scripts cannot be interrupted or limited: instruction limits are ignored, and overdue jobs abandoned while they run on", engine.getClass().getName());
+		}
+		if (job.getInstructionLimit()>0) job.setInstructionLimit(0);
+	}
+
+	/**
+	 * Bind a job's arguments to the name "args" in the current job scope.
+	 */
+	private void bindArguments(ScriptEngine engine, Object[] args) throws Exception {
+		bindArguments(engine, this.scriptContext, args);
+	}
+
+	static void bindArguments(ScriptEngine engine, ScriptContext context, Object[] args) throws Exception {
+		context.setAttribute("args", ArgumentArrays.convert(engine, args), ScriptContext.ENGINE_SCOPE);
+	}
+
+	/**
+	 * Point this worker's context at the shared global scope (see SharedGlobals), creating that scope on first use
+	 * as a snapshot of the host context's engine scope (the applet, manager and so on).
+	 */
+	private synchronized void bindGlobals(ScriptContext context) {
+		if (this.globalsBound || context==null) return;
+		bindGlobals(this.scriptContext, this.environment, context);
+		this.globalsBound = true;
+	}
+
+	/**
+	 * Point a script context's writers at the job's output buffers, if the job captures its output.
+	 */
+	static void captureOutput(ScriptContext context, Job job) {
+		if (job.getOutput()==null) return;
+		context.setWriter(new PrintWriter(job.getOutput(), true));
+		context.setErrorWriter(new PrintWriter(job.getErrorOutput(), true));
+	}
+
+	/**
+	 * Give a script context the shared global scope and the host context's reader and writers.
+	 */
+	static void bindGlobals(ScriptContext target, Map<String,Object> environment, ScriptContext context) {
+		Bindings globals;
+		synchronized(environment) {
+			globals = (Bindings) environment.get("globals");
+			if (globals==null) {
+				Map<String,Object> snapshot = new HashMap<String,Object>(context.getBindings(ScriptContext.ENGINE_SCOPE));
+				// Engines such as Rhino bind "context" to the evaluating context themselves, the host's must not show through
+				snapshot.remove("context");
+				globals = new SimpleBindings(Collections.unmodifiableMap(snapshot));
+				environment.put("globals", globals);
+			}
+		}
+		target.setBindings(new SharedGlobals(globals, target), ScriptContext.GLOBAL_SCOPE);
+		target.setReader(context.getReader());
+		target.setWriter(context.getWriter());
+		target.setErrorWriter(context.getErrorWriter());
+	}
+
+	/**
+	 * @return The compiled script cache belonging to this worker.
+	 */
+	public ScriptCache getScriptCache() {
+		return this.scripts;
+	}
+
+	/**
+	 * @return Whether this worker is currently evaluating a job.
+	 */
+	public boolean isBusy() {
+		return this.busy;
+	}
+
+	/**
+	 * @return The job being evaluated right now (a member, when running a batch), or null.
+	 */
+	public Job getCurrentJob() {
+		return this.current;
+	}
+
+	/**
+	 * @return The batch being run right now, or null.
+	 */
+	BatchJob getCurrentBatch() {
+		return this.currentBatch;
+	}
+
+	/**
+	 * Interrupt this worker, but only if it is still evaluating the given job.
+	 * Engines which poll for interruption (see RhinoGuard) then abort the script.
+	 * @return Whether the interrupt was delivered.
+	 */
+	synchronized boolean interruptJob(Job job) {
+		if (this.current!=job) return false;
+		this.interrupt();
+		return true;
+	}
+
+	/**
+	 * Stop this worker from taking further jobs once it returns from the given job, so that a replacement can take over its scheduler.
+	 * @return False if the worker has meanwhile moved past the job, in which case it is left alone.
+	 */
+	synchronized boolean retire(Job job) {
+		if (this.current!=job) return false;
+		this.retired = true;
+		return true;
+	}
+
+	/**
+	 * Check whether this worker has already created an engine for the given language.
+	 * @param name Any of the language's names (for example "js" or "python").
+	 * @return Whether an engine instance is already available.
+	 */
+	public boolean hasEngine( String name ) {
+		String canonicalName = this.names.get(name);
+		return canonicalName!=null && this.engines.containsKey(canonicalName);
+	}
+
+	ScriptEngine getEngine(ScriptEngineManager manager, ScriptContext context, String name) {
 		final String fname = "Executor:getEngine()";
 		name = name.trim();
-		Launcher.debug(fname, "START - procuring engine for language " + name + "...");
+		Log.debug(fname, "START - procuring engine for language {}...", name);
+		String canonicalName = this.resolve(manager, name);
+		if (canonicalName==null) return null;
+		ScriptEngine engine = this.engines.get(canonicalName);
+		if (engine!=null) return engine;
+		this.bindGlobals(context);
+		engine = this.createEngine(manager, canonicalName);
+		if (engine==null) return null;
+		ScriptEngine existing = this.engines.putIfAbsent(canonicalName, engine);
+		if (existing!=null) return existing;
+		Log.debug(fname, "END - loading {} engine completed successfully", canonicalName);
+		return engine;
+	}
+	
+	/**
+	 * Resolve any of a language's names to the canonical language name.
+	 * @return The canonical name, or null if no known engine answers to the name.
+	 */
+	private String resolve(ScriptEngineManager manager, String name) {
+		final String fname = "Executor:resolve()";
 		if (manager==null) return null;
 		String canonicalName = this.names.get(name);
 		if (canonicalName==null) {
 			this.setupMappings(manager);
 			canonicalName = this.names.get(name);
-			if (canonicalName==null) {
-				Launcher.debug(fname, "could not resolve engine " + name);
-				return null;
-			}
+			if (canonicalName==null) Log.debug(fname, "could not resolve engine {}", name);
 		}
-		ScriptEngine engine = this.engines.get(canonicalName);
-		if (engine!=null) return engine;
-		engine = manager.getEngineByName(canonicalName);
+		return canonicalName;
+	}
+	
+	/**
+	 * Create a new engine instance bound to this worker's context, without registering it with this worker.
+	 */
+	private ScriptEngine createEngine(ScriptEngineManager manager, String canonicalName) {
+		final String fname = "Executor:createEngine()";
+		long start = System.nanoTime();
+		ScriptEngine engine = manager.getEngineByName(canonicalName);
 		if (engine==null) {
-			Launcher.debug(fname, "manager lookup failed, checking local factories list...");
+			Log.debug(fname, "manager lookup failed, checking local factories list...");
 			for (ScriptEngineFactory factory: this.factories) {
 				if (factory.getLanguageName()==canonicalName) {
 					engine = factory.getScriptEngine();
@@ -127,79 +435,131 @@ public class Executor extends Thread {
 				}
 			}
 			if (engine==null) {
-				Launcher.debug(fname, "could not create instance of engine " + canonicalName);
+				Log.debug(fname, "could not create instance of engine {}", canonicalName);
 				return null;
 			}
 		}
-		engine.setContext(context);
-		this.engines.put(canonicalName, engine);
-		Launcher.debug(fname, "END - loading " + canonicalName + " engine completed successfully");
+		engine.setContext(this.scriptContext);
+		this.stats.recordEngineCreation(System.nanoTime() - start);
 		return engine;
 	}
 	
+	/**
+	 * Create and optionally warm up the engine for a language ahead of its first job.
+	 * Meant to be called from a background thread: the engine is only handed to this worker once it is ready,
+	 * so the worker keeps serving other jobs in the meantime.
+	 * @param warmup Code to evaluate once on the new engine (may be null), so that hot paths get compiled early.
+	 * @return Timings in milliseconds - engine creation followed by warm-up - or null if no engine could be created.
+	 */
+	public long[] preload(ScriptEngineManager manager, ScriptContext context, String name, String warmup) {
+		final String fname = "Executor:preload()";
+		long start = System.currentTimeMillis();
+		String canonicalName = this.resolve(manager, name.trim());
+		if (canonicalName==null || this.engines.containsKey(canonicalName)) return null;
+		this.bindGlobals(context);
+		ScriptEngine engine = this.createEngine(manager, canonicalName);
+		if (engine==null) return null;
+		long created = System.currentTimeMillis();
+		if (warmup!=null && warmup.length()>0) {
+			// The worker may be running a job in its own context meanwhile, so warm up in a private one
+			ScriptContext warmupContext = new SimpleScriptContext();
+			warmupContext.setBindings(new SimpleBindings(), ScriptContext.ENGINE_SCOPE);
+			Bindings globals = this.scriptContext.getBindings(ScriptContext.GLOBAL_SCOPE);
+			if (globals instanceof SharedGlobals) warmupContext.setBindings(((SharedGlobals) globals).view(warmupContext), ScriptContext.GLOBAL_SCOPE);
+			try {
+				engine.eval(warmup, warmupContext);
+			} catch (Exception e) {
+				Log.debug(fname, "warm-up script for {} failed - {}", canonicalName, e.getMessage());
+			}
+		}
+		long warmed = System.currentTimeMillis();
+		this.engines.putIfAbsent(canonicalName, engine);
+		Log.debug(fname, "{} engine ready in {}ms", canonicalName, (warmed - start));
+		return new long[] { created - start, warmed - created };
+	}
+	
 	private void setupMappings(ScriptEngineManager manager) {
 		final String fname = "Executor:setupMappings()";
-		Launcher.debug(fname, "START");
-		Launcher.debug(fname, "creating auto-discovered script engine alias mappings...");
+		Log.debug(fname, "START");
+		Log.debug(fname, "creating auto-discovered script engine alias mappings...");
 		List<ScriptEngineFactory> factories = manager.getEngineFactories();
 		for (ScriptEngineFactory factory: factories) {
 			String canonicalName = factory.getLanguageName();
-			Launcher.debug(fname, "  Engine: " + factory.getEngineName() + " [" + canonicalName + "]");
-			for (String name: factory.getNames()) {
-				if (this.names.get(name)==null) this.names.put(name, canonicalName);
-			}
+			Log.debug(fname, "  Engine: {} [{}]", factory.getEngineName(), canonicalName);
+			for (String name: factory.getNames()) this.names.putIfAbsent(name, canonicalName);
 		}
-		Launcher.debug(fname, "creating script engine alias mappings from local list...");
+		Log.debug(fname, "creating script engine alias mappings from local list...");
 		for (ScriptEngineFactory factory: this.factories) {
 			String canonicalName = factory.getLanguageName();
-			Launcher.debug(fname, "  Engine: " + factory.getEngineName() + " [" + canonicalName + "]");
-			for (String name: factory.getNames()) {
-				if (this.names.get(name)==null) this.names.put(name, canonicalName);
-			}
+			Log.debug(fname, "  Engine: {} [{}]", factory.getEngineName(), canonicalName);
+			for (String name: factory.getNames()) this.names.putIfAbsent(name, canonicalName);
 		}
-		Launcher.debug(fname, "END");
+		Log.debug(fname, "END");
 	}
 	
 	/**
-	 * Attempts to add a jar to the "system" classloader, signified by URL/URI (preferably a file URI)
+	 * Attempts to add a jar to the classloader shared by scripts, signified by URL/URI (preferably a file URI).
+	 * Any script engines the jar provides are registered, so they can be used by name straight away.
 	 * @param uri The URL of the jar to add (preferably a file URI, but a String, File or URL will also do)
 	 * @return Whether the operation was successful.
 	 */
 	public boolean addSystemJar( Object uri ) {
 		final String fname = "Executor:addSystemJar()";
-		Launcher.debug(fname, "START");
+		Log.debug(fname, "START");
 		
-		if (this.applet.isDestroyed()) {
-			Launcher.debug(fname, "END - applet is already destroyed, exiting!");
+		if (this.host.isDestroyed()) {
+			Log.debug(fname, "END - host is already destroyed, exiting!");
 			return false;
 		}
-		if (!this.applet.isPrivileged()) {
-			Launcher.debug(fname, "END - applet is not running in privileged mode, exiting!");
+		if (!this.host.isPrivileged()) {
+			Log.debug(fname, "END - host is not running in privileged mode, exiting!");
 			return false;
 		}
 		
-		URLClassLoader appClassLoader = (URLClassLoader)ClassLoader.getSystemClassLoader();
+		ScriptClassLoader loader = classLoader(this.environment);
 		try {
-			URL url = null;
-			if (uri instanceof java.io.File) url = ((java.io.File)uri).toURI().toURL();
-			if (uri instanceof java.net.URI) url = ((java.net.URI)uri).toURL();
-			if (uri instanceof URL) url = (URL)uri;
-			if (url==null) url = new URL(uri.toString());
-			Method addURL = URLClassLoader.class.getDeclaredMethod("addURL", URL.class);
-			addURL.setAccessible(true);
-			Launcher.debug(fname, "adding " + url);
-			addURL.invoke(appClassLoader,new Object[]{ url });
+			Log.debug(fname, "adding {}", uri);
+			if (!loader.addJar(uri)) {
+				Log.debug(fname, "END - jar was already added");
+				return true;
+			}
 		} catch (Throwable t) {
-			Launcher.debug(fname, "failed to add jar URL to system classloader");
-			t.printStackTrace(System.out);
-			Launcher.debug(fname, "END - inhospitable environment");
+			Log.warn(fname, "failed to add jar to script classloader", t);
+			Log.debug(fname, "END - inhospitable environment");
 			return false;
 		}
+		
+		// Only the new jar's factories are of interest, the rest are known already
+		for (ScriptEngineFactory factory: new ScriptEngineManager(loader).getEngineFactories()) {
+			if (factory.getClass().getClassLoader()!=loader) continue;
+			boolean known = false;
+			for (ScriptEngineFactory existing: this.factories) {
+				if (existing.getClass()==factory.getClass()) known = true;
+			}
+			if (!known) {
+				Log.debug(fname, "registering engine {}", factory.getEngineName());
+				this.addEngineFactory(factory);
+			}
+		}
 
-		Launcher.debug(fname, "END - jar successfully added");
+		Log.debug(fname, "END - jar successfully added");
 		return true;
 	}
 
+	/**
+	 * @return The loader for jars added by scripts, shared through the host's environment and created on first use.
+	 */
+	static ScriptClassLoader classLoader( Map<String,Object> environment ) {
+		synchronized(environment) {
+			ScriptClassLoader loader = (ScriptClassLoader) environment.get("loader");
+			if (loader==null) {
+				loader = new ScriptClassLoader(Executor.class.getClassLoader());
+				environment.put("loader", loader);
+			}
+			return loader;
+		}
+	}
+
 	/**
 	 * Adds a given ScriptEngineFactory to the list of known factories.
 	 * @param factory The ScriptEngineFactory to add.
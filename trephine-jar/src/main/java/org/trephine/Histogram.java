@@ -0,0 +1,84 @@
+package org.trephine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram over microseconds. Values fall into log-linear buckets - eight per power
+ * of two - so percentiles are accurate to within about 12% while recording stays a single atomic increment.
+ */
+public class Histogram {
+
+	private static final int SUB_BITS = 3;
+	private static final int SUB_BUCKETS = 1 << SUB_BITS;
+	private static final int BUCKETS = (64 - SUB_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Record one observation.
+	 * @param nanos Duration in nanoseconds; negative values are ignored.
+	 */
+	public void record( long nanos ) {
+		if (nanos<0) return;
+		long micros = nanos / 1000;
+		this.counts.incrementAndGet(index(micros));
+		this.count.incrementAndGet();
+		long current;
+		while (micros > (current = this.max.get())) {
+			if (this.max.compareAndSet(current, micros)) break;
+		}
+	}
+
+	public long getCount() {
+		return this.count.get();
+	}
+
+	/**
+	 * @return The largest value recorded, in microseconds.
+	 */
+	public long getMax() {
+		return this.max.get();
+	}
+
+	/**
+	 * @param fraction Percentile as a fraction, for example 0.99.
+	 * @return Upper bound of the bucket holding the requested percentile, in microseconds.
+	 */
+	public long getPercentile( double fraction ) {
+		long total = this.count.get();
+		if (total==0) return 0;
+		long target = Math.max(1, (long) Math.ceil(total * fraction));
+		long seen = 0;
+		for (int i=0; i<BUCKETS; i++) {
+			seen += this.counts.get(i);
+			if (seen>=target) return Math.min(upperBound(i), this.max.get());
+		}
+		return this.max.get();
+	}
+
+	/**
+	 * @return JSON object string of the form {"count":n,"p50":n,"p99":n,"max":n} (microseconds).
+	 */
+	public String toJSON() {
+		return "{\"count\":" + this.getCount() + ",\"p50\":" + this.getPercentile(0.5) +
+			",\"p99\":" + this.getPercentile(0.99) + ",\"max\":" + this.getMax() + "}";
+	}
+
+	private static int index( long value ) {
+		if (value < SUB_BUCKETS) return (int) value;
+		int exponent = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int sub = (int) (value >>> exponent) & (SUB_BUCKETS - 1);
+		return (exponent + 1) * SUB_BUCKETS + sub;
+	}
+
+	private static long upperBound( int index ) {
+		if (index < SUB_BUCKETS) return index;
+		int exponent = index / SUB_BUCKETS - 1;
+		long sub = index % SUB_BUCKETS;
+		return ((SUB_BUCKETS + sub + 1) << exponent) - 1;
+	}
+
+}
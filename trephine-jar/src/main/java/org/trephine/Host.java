@@ -0,0 +1,9 @@
+package org.trephine;
+
+/**
+ * The environment an Executor pipeline runs in - the browser applet (Launcher) or a plain JVM (Standalone).
+ */
+public interface Host {
+	public boolean isPrivileged();
+	public boolean isDestroyed();
+}
@@ -0,0 +1,254 @@
+package org.trephine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Local, content-addressed cache of the dependency jars downloaded at bootstrap.
+ * A manifest records the size and SHA-1 of every jar written; a jar whose file still matches its entry is
+ * reused as-is. Jars are kept apart by where they came from and by the trephine version asking for them, in a
+ * subdirectory of their own, so that deployments sharing the cache never pick up each other's (or an older) jar. Missing or damaged jars are downloaded concurrently, streamed to a temporary file through
+ * NIO channels and renamed into place, so a half-written jar is never mistaken for a good one.
+ * <p>
+ * The manifest only guards against damage, not tampering: anyone who can write to the cache directory can
+ * replace a jar and its entry together. The cache must therefore live somewhere only its user can write to
+ * (see userDirectory()), never in a shared location such as java.io.tmpdir.
+ */
+public class JarCache {
+
+	private static final String MANIFEST = "manifest.properties";
+	private static final long CHUNK = 1 << 20;
+
+	private final File dir;
+	private final String version;
+	private final Properties manifest = new Properties();
+
+	private long elapsed = 0;
+
+	/**
+	 * @return The cache directory of the current user, under their home directory.
+	 */
+	public static File userDirectory() {
+		return new File(new File(System.getProperty("user.home"), ".trephine"), "jars");
+	}
+
+	/**
+	 * @param dir Cache directory, normally userDirectory().
+	 * @param version Version of trephine the jars are for.
+	 */
+	public JarCache( File dir, String version ) {
+		this.dir = dir;
+		this.version = version;
+		if (!dir.exists()) dir.mkdirs();
+		File file = new File(dir, MANIFEST);
+		if (file.exists()) {
+			try {
+				FileInputStream in = new FileInputStream(file);
+				try {
+					this.manifest.load(in);
+				} finally {
+					in.close();
+				}
+			} catch (IOException e) {
+				Log.debug("JarCache:constructor()", "ignoring unreadable manifest - {}", e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Make sure every named jar is present and intact in the cache, downloading whatever is not.
+	 * @param base URL prefix the jar names are resolved against.
+	 * @param jars File names of the jars.
+	 * @return The local files, in the same order as the names.
+	 * @throws IOException If any jar could not be downloaded.
+	 */
+	public File[] fetch( final String base, String[] jars ) throws IOException {
+		final String fname = "JarCache:fetch()";
+		long start = System.currentTimeMillis();
+		final File directory = this.directory(base);
+		if (!directory.exists()) directory.mkdirs();
+		File[] files = new File[jars.length];
+		List<String> missing = new ArrayList<String>();
+		for (int i=0; i<jars.length; i++) {
+			files[i] = new File(directory, jars[i]);
+			if (this.isValid(directory, jars[i])) Log.debug(fname, "  cached {}", jars[i]);
+			else missing.add(jars[i]);
+		}
+		if (!missing.isEmpty()) {
+			ExecutorService pool = Executors.newFixedThreadPool(missing.size());
+			try {
+				List<Future<Object>> downloads = new ArrayList<Future<Object>>();
+				for (final String jar: missing) {
+					downloads.add(pool.submit(new Callable<Object>() {
+						public Object call() throws IOException {
+							download(new URL(base + jar), directory, jar);
+							return null;
+						}
+					}));
+				}
+				for (Future<Object> download: downloads) {
+					try {
+						download.get();
+					} catch (InterruptedException e) {
+						throw new IOException("Interrupted while downloading dependency jars");
+					} catch (ExecutionException e) {
+						IOException ioe = new IOException("Failed to download dependency jar - " + e.getCause());
+						ioe.initCause(e.getCause());
+						throw ioe;
+					}
+				}
+			} finally {
+				pool.shutdown();
+			}
+			this.saveManifest();
+		}
+		this.elapsed = System.currentTimeMillis() - start;
+		Log.debug(fname, "dependency jars ready in {}ms ({} downloaded)", this.elapsed, missing.size());
+		return files;
+	}
+
+	/**
+	 * @return Time in milliseconds taken by the last fetch().
+	 */
+	public long getElapsed() {
+		return this.elapsed;
+	}
+
+	/**
+	 * @return The subdirectory holding the jars fetched from the given base URL for this version of trephine,
+	 *         named after a hash of the two.
+	 */
+	File directory( String base ) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update((this.version + "\n" + base).getBytes("UTF-8"));
+			return new File(this.dir, hex(digest.digest()).substring(0, 16));
+		} catch (Exception e) {
+			throw new IllegalStateException("SHA-1 unavailable", e);
+		}
+	}
+
+	/**
+	 * Check a cached jar against its manifest entry (size first, then content hash).
+	 */
+	private boolean isValid( File directory, String jar ) {
+		String entry;
+		synchronized (this.manifest) {
+			entry = this.manifest.getProperty(key(directory, jar));
+		}
+		File file = new File(directory, jar);
+		if (entry==null || !file.isFile()) return false;
+		String[] parts = entry.split(",");
+		if (parts.length!=2) return false;
+		try {
+			// A size which does not parse marks the entry as damaged, like any other mismatch
+			if (file.length()!=Long.parseLong(parts[0])) return false;
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			FileChannel channel = new FileInputStream(file).getChannel();
+			try {
+				ByteBuffer buf = ByteBuffer.allocate(65536);
+				while (channel.read(buf)!=-1) {
+					buf.flip();
+					digest.update(buf);
+					buf.clear();
+				}
+			} finally {
+				channel.close();
+			}
+			return parts[1].equals(hex(digest.digest()));
+		} catch (Exception e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Stream a jar to a temporary file, hashing it on the way, then rename it into place.
+	 */
+	private void download( URL url, File directory, String jar ) throws IOException {
+		final String fname = "JarCache:download()";
+		Log.debug(fname, "  downloading {}", url);
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException("SHA-1 unavailable");
+		}
+		File temp = File.createTempFile(jar, ".part", directory);
+		long size = 0;
+		InputStream in = new DigestInputStream(url.openStream(), digest);
+		ReadableByteChannel source = Channels.newChannel(in);
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			FileChannel target = out.getChannel();
+			long n;
+			while ((n = target.transferFrom(source, size, CHUNK)) > 0) size += n;
+			target.force(false);
+		} finally {
+			source.close();
+			out.close();
+		}
+		File file = new File(directory, jar);
+		if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Unable to move " + temp + " into place as " + file);
+		}
+		synchronized (this.manifest) {
+			this.manifest.setProperty(key(directory, jar), size + "," + hex(digest.digest()));
+		}
+	}
+
+	/**
+	 * @return The manifest key of a jar: its path relative to the cache directory.
+	 */
+	private static String key( File directory, String jar ) {
+		return directory.getName() + "/" + jar;
+	}
+
+	/**
+	 * Write the manifest through a temporary file so a crash never leaves a truncated manifest behind.
+	 */
+	private void saveManifest() throws IOException {
+		File temp = File.createTempFile(MANIFEST, ".part", this.dir);
+		FileOutputStream out = new FileOutputStream(temp);
+		try {
+			synchronized (this.manifest) {
+				this.manifest.store(out, "trephine dependency jar cache");
+			}
+		} finally {
+			out.close();
+		}
+		File file = new File(this.dir, MANIFEST);
+		if ((file.exists() && !file.delete()) || !temp.renameTo(file)) {
+			temp.delete();
+			throw new IOException("Unable to move " + temp + " into place as " + file);
+		}
+	}
+
+	private static String hex( byte[] bytes ) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b: bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
+	}
+
+}
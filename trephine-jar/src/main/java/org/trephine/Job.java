@@ -1,64 +1,403 @@
 package org.trephine;
 
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
 public class Job {
 
+	private static final AtomicLong sequence = new AtomicLong();
+
 	public static final Job DONE = new Job( null, null );
 
+	private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 256 : 0;
+
+	private static final int PENDING = 0;
+	private static final int STARTED = 1;
+	private static final int FINISHING = 2;
+	private static final int FINISHED = 3;
+
+	private final long id;
 	private final String language;
 	private final String code;
+	private final Object[] args;
 	
+	private final AtomicInteger state = new AtomicInteger(PENDING);
+	private final ConcurrentLinkedQueue<Thread> waiters = new ConcurrentLinkedQueue<Thread>();
+	private final AtomicBoolean notified = new AtomicBoolean(false);
+
+	// Written before the state becomes FINISHED, and so published by it
 	private Object result;
 	private Exception exception;
-	private boolean finished = false;
 	private boolean success = false;
 	
+	private volatile JobListener listener;
+	
+	// Lifecycle timestamps (System.nanoTime), each written once by the thread reaching that stage
+	private long submitTime;
+	private long dequeueTime;
+	private long evalStartTime;
+	private long finishTime;
+	
+	// Limits, set before submission; a negative timeout means "use the dispatcher's default"
+	private long timeout = -1;
+	private volatile long deadline;
+	private long instructionLimit;
+	private long instructions;
+	
+	// Result serialization, zero depth meaning the result is handed back as is
+	private int jsonDepth;
+	private int jsonSize;
+	
+	// Scheduling, set before submission (see Scheduler)
+	private int lane = Scheduler.INTERACTIVE;
+	private String caller = "";
+	
+	// Result memoization, zero meaning the job is always evaluated (see ResultCache)
+	private long cacheTtl;
+	
+	// Whether to run on a virtual thread rather than an executor (see VirtualPool)
+	private boolean virtual;
+	
+	// Captured output, null unless asked for (the script then writes to the host's console)
+	private OutputBuffer output;
+	private OutputBuffer errorOutput;
+	
 	public boolean getSuccess() {
 		return success;
 	}
 
 	public boolean isFinished() {
-		return finished;
+		return this.state.get()==FINISHED;
 	}
 
 	public Job(String language, String code) {
+		this(language, code, null);
+	}
+
+	/**
+	 * @param args Arguments bound to the name "args" while the code runs, or null for none.
+	 *        Keeping them out of the code text lets the same compiled script serve every call.
+	 */
+	public Job(String language, String code, Object[] args) {
+		this.id = sequence.incrementAndGet();
 		this.language = language;
 		this.code = code;
+		this.args = args;
 		this.result = null;
 		this.exception = null;
 	}
 
+	public long getId() {
+		return id;
+	}
+
 	public Object getResult() {
 		return result;
 	}
 
-	public synchronized void setResult(Object result) {
-		if ( this.finished )
+	public void setResult(Object result) {
+		if ( !this.finish(result, null) )
 			throw new RuntimeException( "Job::setResult cannot be called on finished job." );
-		this.finished = true;
-		this.success = true;
-		this.result = result;
-		this.notifyAll();
 	}
 
 	public Exception getException() {
 		return exception;
 	}
 
-	public synchronized void setException(Exception exception) {
-		if ( this.finished )
+	public void setException(Exception exception) {
+		if ( !this.finish(null, exception) )
 			throw new RuntimeException( "Job::setException cannot be called on a finished job." );
-		this.finished = true;
-		this.success = false;
-		this.exception = exception;
-		this.notifyAll();
 	}
 
 	public String getCode() {
 		return code;
 	}
 
+	public Object[] getArgs() {
+		return args;
+	}
+
 	public String getLanguage() {
 		return language;
 	}
 	
+	public long getSubmitTime() { return submitTime; }
+	public long getDequeueTime() { return dequeueTime; }
+	public long getEvalStartTime() { return evalStartTime; }
+	public long getFinishTime() { return finishTime; }
+
+	public void markSubmitted() {
+		this.submitTime = System.nanoTime();
+		if (this.timeout>0) this.deadline = this.submitTime + TimeUnit.MILLISECONDS.toNanos(this.timeout);
+	}
+	public void markDequeued() { this.dequeueTime = System.nanoTime(); }
+	public void markEvalStart() { this.evalStartTime = System.nanoTime(); }
+
+	/**
+	 * @return Maximum time in milliseconds from submission to completion, zero for none,
+	 *         or negative if the dispatcher's default applies.
+	 */
+	public long getTimeout() {
+		return timeout;
+	}
+
+	public void setTimeout(long timeout) {
+		this.timeout = timeout;
+	}
+
+	/**
+	 * @return Whether the job has a deadline which has passed (only meaningful once submitted).
+	 */
+	public boolean isOverdue(long now) {
+		long deadline = this.deadline;
+		return deadline!=0 && now - deadline > 0;
+	}
+
+	/**
+	 * @return Maximum number of instructions the script may execute, or zero for no limit.
+	 *         Only enforced for engines which count instructions (see RhinoGuard), and dropped for others.
+	 */
+	public long getInstructionLimit() {
+		return instructionLimit;
+	}
+
+	public void setInstructionLimit(long instructionLimit) {
+		this.instructionLimit = Math.max(0, instructionLimit);
+	}
+
+	/**
+	 * Charge executed instructions against the job's budget; only called from the executing thread.
+	 * @return False once the budget is exceeded.
+	 */
+	boolean consumeInstructions(int count) {
+		this.instructions += count;
+		return this.instructionLimit==0 || this.instructions<=this.instructionLimit;
+	}
+
+	/**
+	 * Ask for the result to be serialized to JSON on the executing thread (see JsonWriter).
+	 * @param maxDepth Maximum nesting of the result graph.
+	 * @param maxSize Maximum length of the JSON in characters.
+	 */
+	public void setJsonResult(int maxDepth, int maxSize) {
+		this.jsonDepth = Math.max(1, maxDepth);
+		this.jsonSize = Math.max(1, maxSize);
+	}
+
+	public boolean isJsonResult() {
+		return this.jsonDepth>0;
+	}
+
+	public int getJsonDepth() {
+		return jsonDepth;
+	}
+
+	public int getJsonSize() {
+		return jsonSize;
+	}
+
+	/**
+	 * @return The priority lane the job is queued in, Scheduler.INTERACTIVE or Scheduler.BACKGROUND.
+	 */
+	public int getLane() {
+		return lane;
+	}
+
+	public void setLane(int lane) {
+		this.lane = lane==Scheduler.BACKGROUND ? Scheduler.BACKGROUND : Scheduler.INTERACTIVE;
+	}
+
+	/**
+	 * @return Identifies the submitter (typically a page or frame) for fair sharing within a lane; never null.
+	 */
+	public String getCaller() {
+		return caller;
+	}
+
+	public void setCaller(String caller) {
+		this.caller = caller==null ? "" : caller;
+	}
+
+	/**
+	 * @return How long in milliseconds a successful result of this job may be reused for identical jobs,
+	 *         or zero if the job must always be evaluated. Only meaningful for jobs without side effects.
+	 */
+	public long getCacheTtl() {
+		return cacheTtl;
+	}
+
+	public void setCacheTtl(long cacheTtl) {
+		this.cacheTtl = Math.max(0, cacheTtl);
+	}
+
+	/**
+	 * @return Whether the job asked to run on a virtual thread. Ignored where the JVM has none.
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	public void setVirtual(boolean virtual) {
+		this.virtual = virtual;
+	}
+
+	/**
+	 * Capture what the script writes to its writer and error writer, rather than letting it reach the console.
+	 * @param capacity Characters kept per stream; older output is dropped.
+	 */
+	public void captureOutput(int capacity) {
+		this.output = new OutputBuffer(capacity);
+		this.errorOutput = new OutputBuffer(capacity);
+	}
+
+	/**
+	 * @return The captured standard output, or null if output is not captured. May be read while the job runs.
+	 */
+	public OutputBuffer getOutput() {
+		return output;
+	}
+
+	/**
+	 * @return The captured error output, or null if output is not captured. May be read while the job runs.
+	 */
+	public OutputBuffer getErrorOutput() {
+		return errorOutput;
+	}
+
+	/**
+	 * Register a listener to be told when this job finishes.
+	 * If the job is already finished, the listener is notified immediately.
+	 */
+	public void setListener(JobListener listener) {
+		this.listener = listener;
+		if (this.isFinished()) this.fireFinished();
+	}
+
+	/**
+	 * Mark the job as started by an executor.
+	 * @return False if the job was cancelled before it could start, in which case it must be skipped.
+	 */
+	public boolean start() {
+		return this.state.compareAndSet(PENDING, STARTED);
+	}
+
+	/**
+	 * Cancel the job if it has not finished yet. A job which has not started is simply skipped;
+	 * one which is running is completed straight away, and the Dispatcher's watchdog then interrupts
+	 * (and if need be replaces) the worker still evaluating it.
+	 * @return Whether the job was cancelled.
+	 */
+	public boolean cancel() {
+		return this.finish(null, new CancellationException("Job " + this.id + " was cancelled."));
+	}
+
+	/**
+	 * Record the outcome unless the job has already finished (for example because it was cancelled or timed out).
+	 * @return Whether this call decided the outcome.
+	 */
+	boolean complete(Object result, Exception exception) {
+		return this.finish(result, exception);
+	}
+
+	/**
+	 * Fail the job, but only if no executor has started it yet (used to shed queued work under overload).
+	 * @return Whether the job was dropped.
+	 */
+	boolean drop(Exception exception) {
+		if (!this.state.compareAndSet(PENDING, FINISHING)) return false;
+		this.publish(null, exception);
+		return true;
+	}
+
+	/**
+	 * Time the job out if its deadline has passed while it was still waiting to be started, so that it is
+	 * skipped rather than run (the deadline counts from submission, not from when a worker gets to it).
+	 * @return Whether the job was timed out.
+	 */
+	boolean expire(long now) {
+		if (!this.isOverdue(now)) return false;
+		return this.drop(new TimeoutException("Job " + this.id + " exceeded its deadline of " + this.timeout + "ms before it started."));
+	}
+
+	/**
+	 * @return Whether the job is still waiting to be started.
+	 */
+	boolean isPending() {
+		return this.state.get()==PENDING;
+	}
+
+	/**
+	 * Wait for the job to finish, spinning briefly before parking the calling thread. Gives up early if the
+	 * calling thread is interrupted, leaving its interrupt flag set.
+	 * @param timeout Maximum time to wait in milliseconds, or zero to wait indefinitely.
+	 * @return Whether the job has finished.
+	 */
+	public boolean await(long timeout) {
+		for (int i=0; i<SPINS; i++) {
+			if (this.isFinished()) return true;
+		}
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		Thread thread = Thread.currentThread();
+		this.waiters.add(thread);
+		try {
+			while (!this.isFinished()) {
+				// Parking returns at once while the flag is set, so waiting on would only spin
+				if (thread.isInterrupted()) break;
+				if (timeout<=0) {
+					LockSupport.park(this);
+				} else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining<=0) break;
+					LockSupport.parkNanos(this, remaining);
+				}
+			}
+		} finally {
+			this.waiters.remove(thread);
+		}
+		return this.isFinished();
+	}
+
+	/**
+	 * Record the outcome exactly once, then wake any waiters and notify the listener.
+	 * @return False if the job had already finished.
+	 */
+	private boolean finish(Object result, Exception exception) {
+		int s;
+		do {
+			s = this.state.get();
+			if (s>=FINISHING) return false;
+		} while (!this.state.compareAndSet(s, FINISHING));
+		this.publish(result, exception);
+		return true;
+	}
+
+	/**
+	 * Second half of finishing, once this thread has moved the state to FINISHING.
+	 */
+	private void publish(Object result, Exception exception) {
+		this.result = result;
+		this.exception = exception;
+		this.success = exception==null;
+		this.finishTime = System.nanoTime();
+		this.state.set(FINISHED);
+		for (Thread waiter: this.waiters) LockSupport.unpark(waiter);
+		this.fireFinished();
+	}
+
+	private void fireFinished() {
+		JobListener listener = this.listener;
+		if (listener==null || !this.notified.compareAndSet(false, true)) return;
+		try {
+			listener.jobFinished(this);
+		} catch (RuntimeException e) {
+			Log.error("Job:fireFinished()", "listener failed", e);
+		}
+	}
+	
 }
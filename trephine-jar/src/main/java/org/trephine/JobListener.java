@@ -0,0 +1,8 @@
+package org.trephine;
+
+/**
+ * Notified once a Job has finished, either successfully, with an exception or by cancellation.
+ */
+public interface JobListener {
+	public void jobFinished(Job job);
+}
@@ -0,0 +1,95 @@
+package org.trephine;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Per-job settings passed across the LiveConnect boundary as a single string of the form
+ * "timeout=500&instructions=1000000&result=json&priority=background&caller=frame1&cache=60000&thread=virtual&output=4096",
+ * so that the browser side never has to build Java objects. Keys and values are URL-encoded (UTF-8), as
+ * trephine.js does with encodeURIComponent. Unknown keys are kept (for later use) and malformed values are ignored.
+ */
+public class JobOptions {
+
+	public static final JobOptions NONE = new JobOptions(new HashMap<String,String>());
+
+	private final Map<String,String> values;
+
+	private JobOptions( Map<String,String> values ) {
+		this.values = values;
+	}
+
+	/**
+	 * @param options Options string, may be null or empty.
+	 */
+	public static JobOptions parse( String options ) {
+		if (options==null || options.trim().length()==0) return NONE;
+		Map<String,String> values = new HashMap<String,String>();
+		for (String pair: options.split("&")) {
+			int eq = pair.indexOf('=');
+			String key = decode(eq<0 ? pair : pair.substring(0, eq));
+			if (key==null || key.length()==0) continue;
+			String value = eq<0 ? "" : decode(pair.substring(eq + 1));
+			if (value!=null) values.put(key, value);
+		}
+		return new JobOptions(values);
+	}
+
+	/**
+	 * @return The decoded, trimmed text, or null if it is not validly encoded.
+	 */
+	private static String decode( String text ) {
+		try {
+			return URLDecoder.decode(text, "UTF-8").trim();
+		} catch (IllegalArgumentException e) {
+			Log.debug("JobOptions:decode()", "ignoring malformed option '{}'", text);
+			return null;
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+	public String get( String key ) {
+		return this.values.get(key);
+	}
+
+	/**
+	 * @return The value of a numeric option, or the fallback if it is absent or malformed.
+	 */
+	public long getLong( String key, long fallback ) {
+		String value = this.values.get(key);
+		if (value==null || value.length()==0) return fallback;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			Log.debug("JobOptions:getLong()", "ignoring invalid {} option '{}'", key, value);
+			return fallback;
+		}
+	}
+
+	/**
+	 * Apply the options understood by every job to a newly created one. Output capture is capped at
+	 * OutputBuffer.MAX_CAPACITY characters per stream.
+	 */
+	public Job applyTo( Job job ) {
+		job.setTimeout(this.getLong("timeout", job.getTimeout()));
+		job.setInstructionLimit(this.getLong("instructions", job.getInstructionLimit()));
+		if ("background".equals(this.get("priority"))) job.setLane(Scheduler.BACKGROUND);
+		if (this.get("caller")!=null) job.setCaller(this.get("caller"));
+		if ("virtual".equals(this.get("thread"))) job.setVirtual(true);
+		String output = this.get("output");
+		if (output!=null && !"false".equals(output)) {
+			long capacity = output.length()==0 || "true".equals(output) ? OutputBuffer.DEFAULT_CAPACITY : this.getLong("output", 0);
+			if (capacity>0) job.captureOutput((int) Math.min(capacity, OutputBuffer.MAX_CAPACITY));
+		}
+		String cache = this.get("cache");
+		if (cache!=null) job.setCacheTtl(cache.length()==0 || "true".equals(cache) ? ResultCache.DEFAULT_TTL : this.getLong("cache", 0));
+		if ("json".equals(this.get("result"))) {
+			job.setJsonResult((int) this.getLong("depth", JsonWriter.DEFAULT_DEPTH), (int) this.getLong("size", JsonWriter.DEFAULT_SIZE));
+		}
+		return job;
+	}
+
+}
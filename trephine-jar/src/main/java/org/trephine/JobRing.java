@@ -0,0 +1,132 @@
+package org.trephine;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded ring of preallocated job slots handing jobs from any number of producer threads to a single
+ * consumer (the executor owning the ring). Slots are reused in place and claimed with a compare-and-set,
+ * so a hand-off costs no lock, no monitor inflation and no allocation. A waiting consumer spins briefly,
+ * then yields, then parks until a producer publishes into its ring.
+ */
+public class JobRing {
+
+	private static final int SPINS = Runtime.getRuntime().availableProcessors() > 1 ? 128 : 0;
+	private static final int YIELDS = 16;
+	private static final long FULL_PARK_NANOS = 50000L;
+
+	private final int mask;
+	private final Job[] jobs;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong head = new AtomicLong();
+
+	private volatile Thread waiter;
+
+	/**
+	 * @param capacity Number of slots; rounded up to the next power of two.
+	 */
+	public JobRing( int capacity ) {
+		int size = 1;
+		while (size < capacity) size <<= 1;
+		this.mask = size - 1;
+		this.jobs = new Job[size];
+		this.sequences = new AtomicLongArray(size);
+		for (int i=0; i<size; i++) this.sequences.set(i, i);
+	}
+
+	/**
+	 * Insert a job if a slot is free; never blocks.
+	 * @return Whether the job was accepted.
+	 */
+	public boolean offer( Job job ) {
+		while (true) {
+			long pos = this.tail.get();
+			int index = (int) (pos & this.mask);
+			long diff = this.sequences.get(index) - pos;
+			if (diff==0) {
+				if (this.tail.compareAndSet(pos, pos + 1)) {
+					this.jobs[index] = job;
+					this.sequences.set(index, pos + 1);
+					Thread w = this.waiter;
+					if (w!=null) LockSupport.unpark(w);
+					return true;
+				}
+			} else if (diff<0) {
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * Insert a job, waiting (spinning, then parking briefly) for a free slot if the ring is full.
+	 */
+	public void put( Job job ) {
+		int attempts = 0;
+		while (!this.offer(job)) {
+			if (attempts++ < YIELDS) Thread.yield();
+			else LockSupport.parkNanos(this, FULL_PARK_NANOS);
+		}
+	}
+
+	/**
+	 * Remove the next job if one has been published; never blocks. Must only be called by the consumer.
+	 * @return The next job, or null if the ring is empty.
+	 */
+	public Job poll() {
+		long pos = this.head.get();
+		int index = (int) (pos & this.mask);
+		if (this.sequences.get(index) - (pos + 1) != 0) return null;
+		Job job = this.jobs[index];
+		this.jobs[index] = null;
+		this.sequences.set(index, pos + this.mask + 1);
+		this.head.set(pos + 1);
+		return job;
+	}
+
+	/**
+	 * Wait until a job is available for taking, then return it. Must only be called by the consumer.
+	 * @return A job to execute.
+	 */
+	public Job take() {
+		Job job;
+		for (int i=0; i<SPINS; i++) {
+			if ((job = this.poll())!=null) return job;
+		}
+		for (int i=0; i<YIELDS; i++) {
+			if ((job = this.poll())!=null) return job;
+			Thread.yield();
+		}
+		this.waiter = Thread.currentThread();
+		try {
+			while ((job = this.poll())==null) LockSupport.park(this);
+		} finally {
+			this.waiter = null;
+		}
+		return job;
+	}
+
+	/**
+	 * @return Whether no jobs are waiting to be taken.
+	 */
+	public boolean isEmpty() {
+		return this.size()==0;
+	}
+
+	/**
+	 * @return The number of jobs waiting to be taken (approximate while producers are active).
+	 */
+	public int size() {
+		long size = this.tail.get() - this.head.get();
+		return size<0 ? 0 : (int) size;
+	}
+
+	/**
+	 * @return Number of slots in the ring.
+	 */
+	public int capacity() {
+		return this.mask + 1;
+	}
+
+}
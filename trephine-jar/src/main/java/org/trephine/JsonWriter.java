@@ -0,0 +1,183 @@
+package org.trephine;
+
+import java.lang.reflect.Array;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Serializes a script result graph to a compact JSON string in a single pass, so that a page can fetch a
+ * large result in one LiveConnect crossing instead of walking it element by element.
+ * Understands maps, collections and other iterables, arrays, numbers, booleans, characters and strings
+ * (plus Rhino's native objects, via RhinoJson, or ReflectiveRhino for the JDK's built-in copy); anything else is written as its toString().
+ * Cyclic references and graphs deeper or larger than the configured limits are rejected.
+ */
+public class JsonWriter {
+
+	public static final int DEFAULT_DEPTH = 32;
+	public static final int DEFAULT_SIZE = 1 << 20;
+
+	private final int maxDepth;
+	private final int maxSize;
+	private final StringBuilder sb = new StringBuilder();
+	private final IdentityHashMap<Object,Object> path = new IdentityHashMap<Object,Object>();
+
+	/**
+	 * @param maxDepth Maximum nesting of containers.
+	 * @param maxSize Maximum length of the output in characters.
+	 */
+	public JsonWriter( int maxDepth, int maxSize ) {
+		this.maxDepth = maxDepth;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return The value as JSON.
+	 * @throws IllegalArgumentException If the value is cyclic, too deep or too large.
+	 */
+	public static String write( Object value, int maxDepth, int maxSize ) {
+		JsonWriter writer = new JsonWriter(maxDepth, maxSize);
+		writer.value(value, 0);
+		return writer.sb.toString();
+	}
+
+	/**
+	 * @return The string as a quoted JSON string literal.
+	 */
+	public static String quote( String s ) {
+		StringBuilder sb = new StringBuilder(s.length() + 2);
+		quote(sb, s);
+		return sb.toString();
+	}
+
+	void value( Object value, int depth ) {
+		if (value==null) {
+			this.sb.append("null");
+		} else if (value instanceof CharSequence || value instanceof Character) {
+			quote(this.sb, value.toString());
+		} else if (value instanceof Number) {
+			this.number((Number) value);
+		} else if (value instanceof Boolean) {
+			this.sb.append(value.toString());
+		} else if (value.getClass().getName().startsWith("org.mozilla.javascript.")) {
+			RhinoJson.write(this, value, depth);
+		} else if (value.getClass().getName().startsWith(ReflectiveRhino.JDK_PACKAGE)) {
+			this.jdkRhino(value, depth);
+		} else if (value instanceof Map<?,?>) {
+			this.enter(value, depth);
+			this.sb.append('{');
+			boolean first = true;
+			for (Map.Entry<?,?> entry: ((Map<?,?>) value).entrySet()) {
+				if (!first) this.sb.append(',');
+				first = false;
+				this.property(String.valueOf(entry.getKey()), entry.getValue(), depth);
+			}
+			this.sb.append('}');
+			this.leave(value);
+		} else if (value instanceof Iterable<?>) {
+			this.enter(value, depth);
+			this.sb.append('[');
+			for (Iterator<?> it = ((Iterable<?>) value).iterator(); it.hasNext(); ) {
+				this.value(it.next(), depth + 1);
+				if (it.hasNext()) this.sb.append(',');
+			}
+			this.sb.append(']');
+			this.leave(value);
+		} else if (value.getClass().isArray()) {
+			this.enter(value, depth);
+			this.sb.append('[');
+			int length = Array.getLength(value);
+			for (int i=0; i<length; i++) {
+				if (i>0) this.sb.append(',');
+				this.value(Array.get(value, i), depth + 1);
+			}
+			this.sb.append(']');
+			this.leave(value);
+		} else {
+			quote(this.sb, value.toString());
+		}
+		this.checkSize();
+	}
+
+	/**
+	 * Write a native object of the JDK's built-in Rhino, as RhinoJson does for js.jar's.
+	 */
+	private void jdkRhino( Object value, int depth ) {
+		try {
+			ReflectiveRhino.jdk(value.getClass().getClassLoader()).write(this, value, depth);
+		} catch (IllegalArgumentException e) {
+			throw e;
+		} catch (Exception e) {
+			IllegalArgumentException failure = new IllegalArgumentException("Unable to serialize " + value.getClass().getName() + " as JSON.");
+			failure.initCause(e);
+			throw failure;
+		}
+	}
+
+	/**
+	 * Write "key":value, for use between the braces of an object.
+	 */
+	void property( String key, Object value, int depth ) {
+		quote(this.sb, key);
+		this.sb.append(':');
+		this.value(value, depth + 1);
+	}
+
+	void number( Number n ) {
+		if (n instanceof Double || n instanceof Float) {
+			double d = n.doubleValue();
+			if (Double.isNaN(d) || Double.isInfinite(d)) this.sb.append("null");
+			else if (d==Math.rint(d) && Math.abs(d)<1e15) this.sb.append((long) d);
+			else this.sb.append(d);
+		} else {
+			this.sb.append(n.toString());
+		}
+	}
+
+	/**
+	 * Mark a container as being written, rejecting cycles and excessive nesting.
+	 */
+	void enter( Object container, int depth ) {
+		if (depth>=this.maxDepth) throw new IllegalArgumentException("Result is nested more than " + this.maxDepth + " levels deep.");
+		if (this.path.put(container, container)!=null) throw new IllegalArgumentException("Result contains a cyclic reference.");
+	}
+
+	void leave( Object container ) {
+		this.path.remove(container);
+	}
+
+	StringBuilder buffer() {
+		return this.sb;
+	}
+
+	void checkSize() {
+		if (this.sb.length()>this.maxSize) throw new IllegalArgumentException("Result exceeds " + this.maxSize + " characters as JSON.");
+	}
+
+	private static void quote( StringBuilder sb, String s ) {
+		sb.append('"');
+		for (int i=0; i<s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				case '\b': sb.append("\\b"); break;
+				case '\f': sb.append("\\f"); break;
+				default:
+					if (c<0x20 || c==0x2028 || c==0x2029) {
+						String hex = Integer.toHexString(c);
+						sb.append("\\u");
+						for (int j=hex.length(); j<4; j++) sb.append('0');
+						sb.append(hex);
+					} else {
+						sb.append(c);
+					}
+			}
+		}
+		sb.append('"');
+	}
+
+}
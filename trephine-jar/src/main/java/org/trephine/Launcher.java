@@ -26,278 +26,359 @@
 package org.trephine;
 
 import java.applet.Applet;
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.InputStreamReader;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.security.AccessControlException;
-import java.security.AllPermission;
-import java.security.CodeSource;
-import java.security.PermissionCollection;
 import java.security.Policy;
-import java.security.ProtectionDomain;
 import java.security.SecurityPermission;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineManager;
 import javax.swing.JOptionPane;
-import javax.swing.SwingUtilities;
 
-public class Launcher extends Applet {
+public class Launcher extends Applet implements Host {
 	
 	private static final long serialVersionUID = 7018115443869232551L;
 
 	private static final String version = "1.3";
+	private static final int COLLECTED_OUTPUTS = 32;
+	private static final int FINISHED_JOBS = 256;
+	private static final String LAUNCHER_SCRIPT = "org/trephine/Launcher.js";
+	private static final long FAILURE_CHECK_INTERVAL = 250;
 	
-	private static boolean debugEnabled = false;
-
 	private boolean privileged = false;
 	private boolean destroyed = false;
 	
-	private Drop drop;
+	private Dispatcher dispatcher;
+	private BrowserBridge bridge;
 	private Thread thread;
-	private Thread executor;
 	private List<String> engines = new ArrayList<String>();
+	private List<String> virtualLanguages = new ArrayList<String>();
+	private int workers = 2;
+	private int scriptCacheSize = 128;
+	private long timeout = 0;
+	private int queueLimit = 0;
+	private Dispatcher.Overload overload = Dispatcher.Overload.REJECT;
+	private List<File> moduleDirectories = new ArrayList<File>();
+	private long bootstrapTime = 0;
+	
+	// Handed from one bootstrap phase to the next
+	private Bootstrap bootstrap;
+	private volatile Exception failure;
+	private Pattern hostPattern;
+	private Pattern webserverPattern;
+	private ScriptEngineManager manager;
+	private ScriptEngine engine;
+	private volatile ModuleLoader modules;
+	
+	private final Map<Long,Job> pending = new ConcurrentHashMap<Long,Job>();
+	
+	// Async jobs which have finished but whose results have not been collected yet, moved here from pending as they
+	// finish; the oldest are forgotten first, so a page which never collects its results cannot use up memory.
+	// Moves between pending, finished and collected happen while holding this map's lock.
+	private final Map<Long,Job> finished = Collections.synchronizedMap(new LinkedHashMap<Long,Job>() {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long,Job> eldest) {
+			return this.size() > FINISHED_JOBS;
+		}
+	});
+	
+	// Jobs whose results have been collected, kept a little longer so that their remaining output can still be read
+	private final Map<Long,Job> collected = Collections.synchronizedMap(new LinkedHashMap<Long,Job>() {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Long,Job> eldest) {
+			return this.size() > COLLECTED_OUTPUTS;
+		}
+	});
 	
 	private String onload;
 	private String onerror;
+	private String oncomplete;
+	private String onoutput;
 	
 	/**
-	 * Applet initialization.
+	 * Applet initialization. The work of starting up is split into phases (see Bootstrap) so that independent
+	 * steps overlap - the script engines are discovered while the page is being checked, for instance - but the
+	 * marshal is only handed to the page once every check has passed. Returns once the dispatcher is running.
 	 */
 	@Override
 	public void init() {
 		
 		// Check for recognized applet params
 		String d = this.getParameter("debug");
-		if (Boolean.parseBoolean(d) || "1".equals(d)) Launcher.debugEnabled = true;
+		if (Boolean.parseBoolean(d) || "1".equals(d)) Launcher.enableDebug();
 		
 		final String fname = "Launcher:init()";
 		
-		debug(fname, "START");
+		Log.debug(fname, "START");
 
 		// Extract recognized applet parameters
-		debug(fname, "extracting additional recognized parameters");
+		Log.debug(fname, "extracting additional recognized parameters");
 		final String onload = this.getParameter("onload");
 		if (onload!=null && onload.length()>0) this.onload = onload;
 		final String onerror = this.getParameter("onerror");
 		if (onerror!=null && onerror.length()>0) this.onerror = onerror;
+		final String oncomplete = this.getParameter("oncomplete");
+		if (oncomplete!=null && oncomplete.length()>0) this.oncomplete = oncomplete;
+		final String onoutput = this.getParameter("onoutput");
+		if (onoutput!=null && onoutput.length()>0) this.onoutput = onoutput;
+		
+		Log.debug(fname, "grabbing reference to applet thread...");
+		this.thread = Thread.currentThread();
+		this.bridge = new BrowserBridge(this, BrowserBridge.DEFAULT_FLUSH_INTERVAL);
+
+		final Launcher applet = this;
+		final HashMap<String,Object> environment = new HashMap<String,Object>();
+		final Properties props = new Properties();
+		final Map<String,String> warmups = new HashMap<String,String>();
+		final URL csLocation = this.getClass().getProtectionDomain().getCodeSource().getLocation();
+		
+		// Once a phase fails the executors are never released, so jobs are failed rather than left waiting
+		final Bootstrap bootstrap = new Bootstrap(new Runnable() {
+			public void run() {
+				applet.failure = new IllegalStateException("Applet failed to start, see the Java console for details.");
+				for (Job job: applet.pending.values()) job.drop(applet.failure);
+				applet.issueErrorCallback();
+			}
+		});
+		this.bootstrap = bootstrap;
 		
 		// Confirming that applet has been initialized with necessary privilege level		
-		debug(fname, "checking for applet privileges...");
-		try {
-			SecurityManager sm = System.getSecurityManager();
-			if (sm!=null) {
-				sm.checkCreateClassLoader();
-				sm.checkPermission(new SecurityPermission("setPolicy"));
+		Bootstrap.Phase privileges = bootstrap.add(new Bootstrap.Phase("privileges") {
+			protected boolean run() {
+				Log.debug(fname, "checking for applet privileges...");
+				try {
+					SecurityManager sm = System.getSecurityManager();
+					if (sm!=null) {
+						sm.checkCreateClassLoader();
+						sm.checkPermission(new SecurityPermission("setPolicy"));
+					}
+					applet.privileged = true;
+					return true;
+				} catch (SecurityException e) {
+					Log.debug(fname, "privilege check failed, further applet interaction will also fail");
+					return false;
+				}
 			}
-			this.privileged = true;
-		} catch (SecurityException e) {
-			debug(fname, "privilege check failed, further applet interaction will also fail");
-			this.issueErrorCallback();
-			return;
-		}
+		});
 		
-		// Load properties from resource properties file
-		Properties props = new Properties();
-		debug(fname, "attempting to read trephine.properties file...");
-		try {
-			props.load(
-				new InputStreamReader(
-					(new URL(
-						"jar:" + 
-						this.getClass().getProtectionDomain().getCodeSource().getLocation() +
-						"!/org/trephine/trephine.properties"
-					)).openStream()
-				)
-			);
-		} catch (Throwable t) {
-			debug(fname, "unable to read trephine.properties file: " + t);
-			return;
-		}
-		debug(fname, "trephine.properties loaded successfully, building regular expressions...");
+		// Load properties from resource properties file, then settle the configuration
+		Bootstrap.Phase properties = bootstrap.add(new Bootstrap.Phase("properties", privileges) {
+			protected boolean run() {
+				Log.debug(fname, "attempting to read trephine.properties file...");
+				try {
+					props.load(
+						new InputStreamReader(
+							(new URL(
+								"jar:" + csLocation + "!/org/trephine/trephine.properties"
+							)).openStream()
+						)
+					);
+				} catch (Throwable t) {
+					Log.error(fname, "unable to read trephine.properties file", t);
+					return false;
+				}
+				Log.debug(fname, "trephine.properties loaded successfully");
+				applet.configure(props, warmups);
+				return true;
+			}
+		});
 		
 		// Attempt to make regular expressions out of properties
-		Pattern hostPattern, webserverPattern;
-		{
-			String webserver = props.getProperty("trephine.webserver.pattern", "");
-			try {
-				webserverPattern = Pattern.compile("\\A(" + webserver + ")\\Z");
-			} catch (Throwable t) {
-				debug(fname, "the properties key 'trephine.webserver.pattern' is not a valid regular expression");
-				t.printStackTrace(System.out);
-				this.issueErrorCallback();
-				return;
-			}
-			String host = props.getProperty("trephine.host.pattern", "");
-			if (host.length()==0) {
-				debug(fname, "the properties key 'trephine.host.pattern' is empty, using the webserver pattern instead");
-				hostPattern = webserverPattern;
-			} else {
+		Bootstrap.Phase patterns = bootstrap.add(new Bootstrap.Phase("patterns", properties) {
+			protected boolean run() {
+				String webserver = props.getProperty("trephine.webserver.pattern", "");
 				try {
-					hostPattern = Pattern.compile("\\A(" + host + ")\\Z");
+					applet.webserverPattern = urlPattern(webserver);
 				} catch (Throwable t) {
-					debug(fname, "the properties key 'trephine.host.pattern' is not a valid regular expression");
-					t.printStackTrace(System.out);
-					this.issueErrorCallback();
-					return;
+					Log.error(fname, "the properties key 'trephine.webserver.pattern' is not a valid regular expression", t);
+					return false;
 				}
+				String host = props.getProperty("trephine.host.pattern", "");
+				if (host.length()==0) {
+					Log.debug(fname, "the properties key 'trephine.host.pattern' is empty, using the webserver pattern instead");
+					applet.hostPattern = applet.webserverPattern;
+				} else {
+					try {
+						applet.hostPattern = urlPattern(host);
+					} catch (Throwable t) {
+						Log.error(fname, "the properties key 'trephine.host.pattern' is not a valid regular expression", t);
+						return false;
+					}
+				}
+				return true;
 			}
-		}
-			
+		});
+		
 		// Check that codebase came from a permitted host domain
-		debug(fname, "checking applet codesource location against host pattern...");
-		URL csLocation = this.getClass().getProtectionDomain().getCodeSource().getLocation();
-		if (!hostPattern.matcher(csLocation.toString()).matches()) {
-			debug(fname, "applet codebase location [" + csLocation + "] does not match host pattern, any further applet interaction will fail.");
-			this.issueErrorCallback();
-			return;
-		}
+		Bootstrap.Phase codebase = bootstrap.add(new Bootstrap.Phase("codebase", patterns) {
+			protected boolean run() {
+				Log.debug(fname, "checking applet codesource location against host pattern...");
+				if (!applet.hostPattern.matcher(csLocation.toString()).matches()) {
+					Log.debug(fname, "applet codebase location [{}] does not match host pattern, any further applet interaction will fail.", csLocation);
+					return false;
+				}
+				return true;
+			}
+		});
 		
 		// Check that the requesting page matches the webserver pattern
-		debug(fname, "checking page domain against webserver pattern...");
-		String pageURL = null;
-		try {
-			Class<?> jsObject = Class.forName("netscape.javascript.JSObject");
-			Method getWindow = jsObject.getMethod("getWindow", Applet.class);
-			Method eval = jsObject.getMethod("eval", String.class);
-			Object window = getWindow.invoke(jsObject, this);
-			pageURL = (String) eval.invoke(window, new Object[] { "window.parent.location + ''" });
-		} catch (Exception e) {
-			debug(fname, "unable to retrieve window.parent.location from calling page, aborting.");
-			e.printStackTrace(System.out);
-			this.issueErrorCallback();
-			return;
-		}
-		if (!webserverPattern.matcher(pageURL).matches()) {
-			debug(fname, "calling page [" + pageURL + "] does not match webserver pattern, any further applet interaction will fail.");
-			this.issueErrorCallback();
-			return;
-		}
-		
-		debug(fname, "grabbing reference to applet thread...");
-		this.thread = Thread.currentThread();
-
-		debug(fname, "replacing policy with ThreadOrientedPolicy...");
-		try {
-			Policy oldPolicy = Policy.getPolicy();
-			Policy newPolicy = new Launcher.ThreadOrientedPolicy(oldPolicy, this);
-			Policy.setPolicy(newPolicy);
-		} catch (AccessControlException e) {
-			debug(fname, "policy override failed!");
-			e.printStackTrace(System.out);
-		}
-
-		String engines = this.getParameter("engines");
-		if (engines!=null) for(String engine: engines.split(",")) this.engines.add(engine);
-
-		final Launcher applet = this;
-		final HashMap<String,Object> environment = new HashMap<String,Object>();
-		
-		debug(fname, "checking for Java Scripting implementation...");
+		Bootstrap.Phase page = bootstrap.add(new Bootstrap.Phase("page", patterns) {
+			protected boolean run() {
+				Log.debug(fname, "checking page domain against webserver pattern...");
+				String pageURL = null;
+				try {
+					pageURL = (String) applet.bridge.eval("window.parent.location + ''");
+				} catch (Exception e) {
+					Log.error(fname, "unable to retrieve window.parent.location from calling page, aborting.", e);
+					return false;
+				}
+				if (!applet.webserverPattern.matcher(pageURL).matches()) {
+					Log.debug(fname, "calling page [{}] does not match webserver pattern, any further applet interaction will fail.", pageURL);
+					return false;
+				}
+				return true;
+			}
+		});
 		
-		try {
-			this.thread.getContextClassLoader().loadClass("javax.script.ScriptEngine");
-		} catch (ClassNotFoundException e) {
-			
-			debug(fname, "could not find required classes, attempting to download and add to system classloader...");
-			String[] jars = new String[] { "script.jar", "js.jar", "js-engine.jar" };
-			
-			File trephineDir = new File(new File(System.getProperty("java.io.tmpdir")), "trephine");
-			debug(fname, "checking for trephine temp directory (" + trephineDir + ")... ");
-			if (!trephineDir.exists()) trephineDir.mkdir();
-			
-			String base = csLocation.toString().replaceFirst("^(.*/).*$", "$1");
-			debug(fname, "downloading dependency jars from " + base + " ...");
-			try {
-				for (int i=0; i<jars.length; i++) {
-					debug(fname, "  copying " + jars[i]);
-					URL jarURL = new URL(base + jars[i]);
-					BufferedInputStream bis = new BufferedInputStream(jarURL.openStream());
-					BufferedOutputStream out = new BufferedOutputStream(new FileOutputStream(new File(trephineDir, jars[i])));
-					int n;
-					byte[] buf = new byte[8192];
-					while ((n = bis.read(buf, 0, buf.length)) != -1) out.write(buf, 0, n);
-					out.flush();
-					bis.close();
-					out.close();
+		// Only widen the policy once both the codebase and the page have been vetted
+		Bootstrap.Phase policy = bootstrap.add(new Bootstrap.Phase("policy", codebase, page) {
+			protected boolean run() {
+				Log.debug(fname, "replacing policy with ThreadOrientedPolicy...");
+				try {
+					Policy oldPolicy = Policy.getPolicy();
+					Policy newPolicy = new ThreadOrientedPolicy(oldPolicy, applet, applet.thread.getThreadGroup());
+					Policy.setPolicy(newPolicy);
+				} catch (AccessControlException e) {
+					Log.warn(fname, "policy override failed!", e);
 				}
-			} catch (Throwable t) {
-				debug(fname, "failed to download dependency jars");
-				t.printStackTrace(System.out);
-				debug(fname, "END - could not satisfy dependencies");
-				this.issueErrorCallback();
-				return;
+				return true;
 			}
-			
-			debug(fname, "attempting to inject dependencies into system classloader...");
-			URLClassLoader appClassLoader = (URLClassLoader)ClassLoader.getSystemClassLoader();
-			try {
-				Method addURL = URLClassLoader.class.getDeclaredMethod("addURL", URL.class);
-				addURL.setAccessible(true);
-				for (int i=0; i<jars.length; i++) {
-					URL url = (new File(trephineDir, jars[i])).toURI().toURL();
-					debug(fname, "  adding " + url);
-					addURL.invoke(appClassLoader,new Object[]{ url });
+		});
+		
+		// Jars are fetched relative to the codebase and added to the system class loader, so both the codebase and
+		// the page must have been vetted first
+		Bootstrap.Phase dependencies = bootstrap.add(new Bootstrap.Phase("dependencies", codebase, page) {
+			protected boolean run() {
+				Log.debug(fname, "checking for Java Scripting implementation...");
+				try {
+					applet.thread.getContextClassLoader().loadClass("javax.script.ScriptEngine");
+					return true;
+				} catch (ClassNotFoundException e) {
+					Log.debug(fname, "could not find required classes, attempting to download and add to system classloader...");
 				}
-			} catch (Throwable t) {
-				debug(fname, "failed adding URLs to system classloader");
-				t.printStackTrace(System.out);
-				debug(fname, "END - inhospitable environment");
-				this.issueErrorCallback();
-				return;
+				String[] jars = new String[] { "script.jar", "js.jar", "js-engine.jar" };
+				
+				File trephineDir = JarCache.userDirectory();
+				Log.debug(fname, "checking trephine jar cache ({})... ", trephineDir);
+				
+				String base = csLocation.toString().replaceFirst("^(.*/).*$", "$1");
+				File[] files;
+				try {
+					JarCache cache = new JarCache(trephineDir, getVersion());
+					files = cache.fetch(base, jars);
+					applet.bootstrapTime = cache.getElapsed();
+				} catch (Throwable t) {
+					Log.error(fname, "failed to download dependency jars", t);
+					Log.debug(fname, "could not satisfy dependencies");
+					return false;
+				}
+				
+				Log.debug(fname, "attempting to inject dependencies into system classloader...");
+				URLClassLoader appClassLoader = (URLClassLoader)ClassLoader.getSystemClassLoader();
+				try {
+					Method addURL = URLClassLoader.class.getDeclaredMethod("addURL", URL.class);
+					addURL.setAccessible(true);
+					for (int i=0; i<files.length; i++) {
+						URL url = files[i].toURI().toURL();
+						Log.debug(fname, "  adding {}", url);
+						addURL.invoke(appClassLoader,new Object[]{ url });
+					}
+				} catch (Throwable t) {
+					Log.error(fname, "failed adding URLs to system classloader", t);
+					Log.debug(fname, "inhospitable environment");
+					return false;
+				}
+				return true;
 			}
-		}
+		});
 		
-		debug(fname, "starting executor thread...");
-		this.drop = new Drop();
-		this.executor = new Executor(applet, drop, environment);
-		this.executor.start();
-
-		debug(fname, "starting background initializer thread...");
-		(new Thread(new Runnable(){
-			public void run() {
-				final String ifname = fname + ":initializer";
-				final Thread thread = Thread.currentThread();
-
-				debug(ifname, "START - " + thread);
+		// Engine discovery and parsing Launcher.js overlap with the page checks
+		Bootstrap.Phase engines = bootstrap.add(new Bootstrap.Phase("engines", dependencies) {
+			protected boolean run() throws Exception {
+				if (!Dispatcher.installScriptGuards()) Log.debug(fname, "running scripts can only be abandoned, not interrupted");
 				
-				debug(ifname, "creating ScriptEngineManager and procuring JavaScript engine");
-				ScriptEngineManager manager = new ScriptEngineManager();
-				ScriptEngine engine = manager.getEngineByName("js");
+				Log.debug(fname, "creating ScriptEngineManager and procuring JavaScript engine");
+				applet.manager = new ScriptEngineManager(Executor.classLoader(environment));
+				applet.engine = applet.manager.getEngineByName("js");
+				if (applet.engine==null) {
+					Log.error(fname, "no JavaScript engine available");
+					return false;
+				}
+				applet.engine.getContext().setAttribute("com.sun.script.jython.comp.mode", "eval", ScriptContext.ENGINE_SCOPE);
+				
+				Log.debug(fname, "setting up module loader and compiling Launcher.js...");
+				applet.modules = new ModuleLoader(environment, applet.manager);
+				applet.modules.install(applet.engine);
+				applet.modules.compile(LAUNCHER_SCRIPT);
+				return true;
+			}
+		});
+		
+		Bootstrap.Phase dispatcher = bootstrap.add(new Bootstrap.Phase("dispatcher", properties, dependencies) {
+			protected boolean run() {
+				Log.debug(fname, "starting {} executor thread(s)...", applet.workers);
+				Dispatcher created = new Dispatcher(applet, applet.workers, applet.scriptCacheSize, environment);
+				created.setDefaultTimeout(applet.timeout);
+				created.setVirtualLanguages(applet.virtualLanguages);
+				if (applet.queueLimit>0) created.setQueueLimit(applet.queueLimit);
+				created.setOverload(applet.overload);
+				created.start();
+				applet.dispatcher = created;
+				return true;
+			}
+		});
+		
+		// Hands the marshal to the page and lets the executors begin
+		Bootstrap.Phase launcher = bootstrap.add(new Bootstrap.Phase("launcher", engines, policy, dispatcher) {
+			protected boolean run() {
+				ScriptEngineManager manager = applet.manager;
+				ScriptEngine engine = applet.engine;
 				ScriptContext context = engine.getContext();
-				context.setAttribute("com.sun.script.jython.comp.mode", "eval", ScriptContext.ENGINE_SCOPE);
 				
-				debug(ifname, "setting global references");
+				Log.debug(fname, "setting global references");
 				engine.put("applet", applet);
 				engine.put("context", context);
 				engine.put("engine", engine);
 				engine.put("manager", manager);
+				engine.put("bridge", applet.bridge);
+				
+				for (File directory: applet.moduleDirectories) applet.modules.addDirectory(directory);
 				
 				try {
-					URL jarURL = this.getClass().getProtectionDomain().getCodeSource().getLocation();
-					URL jsURL = new URL( "jar:" + jarURL.toString() + "!/org/trephine/Launcher.js" );
-					debug(ifname, "attempting to load Launcher.js resource - " + jsURL);
-					InputStreamReader reader = new InputStreamReader( jsURL.openStream() );
-					debug(ifname, "executing JavaScript code in Launcher.js ...");
-					Object result = engine.eval(reader);
-					debug(ifname, "result: " + result);
+					Log.debug(fname, "executing JavaScript code in Launcher.js ...");
+					Object result = applet.modules.run(LAUNCHER_SCRIPT, context);
+					Log.debug(fname, "result: {}", result);
 				} catch (Exception e) {
-					debug(ifname, "Error evaluating code");
-					e.printStackTrace(System.out);
+					Log.error(fname, "Error evaluating code", e);
 				}
 				
-				debug(ifname, "setting environment references");
+				Log.debug(fname, "setting environment references");
 				synchronized (environment) {
 					environment.put("context",context);
 					environment.put("engine",engine);
@@ -305,63 +386,136 @@ public class Launcher extends Applet {
 					environment.put("initialized",true);
 					environment.notifyAll();
 				}
-				
-				if (applet.onload!=null) {
-					debug(ifname, "executing onload callback code...");
-					try {
-						Class<?> jsObject = Class.forName("netscape.javascript.JSObject");
-						Method getWindow = jsObject.getMethod("getWindow", Applet.class);
-						Method eval = jsObject.getMethod("eval", String.class);
-						Object window = getWindow.invoke(jsObject, applet);
-						Object result = eval.invoke(window, new Object[] { "("  + applet.onload + ")();" });
-						debug(ifname, "  result = " + result);
-					} catch (Exception e) {
-						debug(ifname, "callback failed");
-						e.printStackTrace(System.out);
-					}
+				return true;
+			}
+		});
+		
+		Bootstrap.Phase preload = bootstrap.add(new Bootstrap.Phase("preload", launcher) {
+			protected boolean run() {
+				Log.debug(fname, "preloading selected engines in the background...");
+				applet.dispatcher.preload(applet.manager, applet.engine.getContext(), applet.engines, warmups);
+				return true;
+			}
+		});
+		
+		bootstrap.add(new Bootstrap.Phase("onload", preload) {
+			protected boolean run() {
+				if (applet.onload==null) return true;
+				Log.debug(fname, "executing onload callback code...");
+				try {
+					Object result = applet.bridge.eval("("  + applet.onload + ")();");
+					Log.debug(fname, "  result = {}", result);
+				} catch (Exception e) {
+					Log.warn(fname, "callback failed", e);
 				}
-				
-				debug(ifname, "END");
+				return true;
 			}
-		})).start();
+		});
 		
-		debug(fname, "END");
+		Log.debug(fname, "starting bootstrap phases...");
+		bootstrap.start();
+		
+		// Page calls may arrive as soon as init() returns, so wait for somewhere to send them
+		bootstrap.await(dispatcher);
+		
+		Log.debug(fname, "END");
+	}
+	
+	/**
+	 * Read the tunable settings, each from its applet parameter or else from trephine.properties.
+	 */
+	private void configure( Properties props, Map<String,String> warmups ) {
+		final String fname = "Launcher:configure()";
+		
+		String engines = this.getParameter("engines");
+		if (engines!=null) for(String engine: engines.split(",")) this.engines.add(engine);
+		for (String engine: this.engines) {
+			String warmup = this.getParameter("warmup." + engine.trim());
+			if (warmup!=null && warmup.length()>0) warmups.put(engine.trim(), warmup);
+		}
+		
+		String queueLimit = this.getParameter("queue");
+		if (queueLimit==null || queueLimit.length()==0) queueLimit = props.getProperty("trephine.queue.limit", "");
+		try {
+			if (queueLimit.length()>0) this.queueLimit = Integer.parseInt(queueLimit.trim());
+		} catch (NumberFormatException e) {
+			Log.debug(fname, "ignoring invalid queue limit '{}'", queueLimit);
+		}
+		
+		String overload = this.getParameter("overload");
+		if (overload==null || overload.length()==0) overload = props.getProperty("trephine.overload", "");
+		if (overload.length()>0) this.overload = Dispatcher.Overload.parse(overload);
+		
+		String virtual = this.getParameter("virtual");
+		if (virtual==null || virtual.length()==0) virtual = props.getProperty("trephine.virtual", "");
+		for (String language: virtual.split(",")) this.virtualLanguages.add(language);
+		
+		String workers = this.getParameter("workers");
+		if (workers==null || workers.length()==0) workers = props.getProperty("trephine.workers", "");
+		try {
+			if (workers.length()>0) this.workers = Math.max(1, Integer.parseInt(workers.trim()));
+		} catch (NumberFormatException e) {
+			Log.debug(fname, "ignoring invalid worker count '{}'", workers);
+		}
+		
+		String cacheSize = this.getParameter("cache");
+		if (cacheSize==null || cacheSize.length()==0) cacheSize = props.getProperty("trephine.cache.size", "");
+		try {
+			if (cacheSize.length()>0) this.scriptCacheSize = Math.max(0, Integer.parseInt(cacheSize.trim()));
+		} catch (NumberFormatException e) {
+			Log.debug(fname, "ignoring invalid script cache size '{}'", cacheSize);
+		}
+		
+		String flush = this.getParameter("flush");
+		if (flush==null || flush.length()==0) flush = props.getProperty("trephine.flush.interval", "");
+		try {
+			if (flush.length()>0) this.bridge.setFlushInterval(Long.parseLong(flush.trim()));
+		} catch (NumberFormatException e) {
+			Log.debug(fname, "ignoring invalid callback flush interval '{}'", flush);
+		}
+		
+		String modules = this.getParameter("modules");
+		if (modules==null || modules.length()==0) modules = props.getProperty("trephine.modules.path", "");
+		for (String directory: modules.split(",")) {
+			if (directory.trim().length()>0) this.moduleDirectories.add(new File(directory.trim()));
+		}
+		
+		String timeout = this.getParameter("timeout");
+		if (timeout==null || timeout.length()==0) timeout = props.getProperty("trephine.timeout", "");
+		try {
+			if (timeout.length()>0) this.timeout = Math.max(0, Long.parseLong(timeout.trim()));
+		} catch (NumberFormatException e) {
+			Log.debug(fname, "ignoring invalid default timeout '{}'", timeout);
+		}
 	}
 
 	@Override
 	public synchronized void destroy() {
 		final String fname = "Launcher:destroy()";
-		debug(fname, "START");
+		Log.debug(fname, "START");
 		this.destroyed = true;
-		if (this.drop!=null) this.drop.put( Job.DONE );
+		if (this.dispatcher!=null) this.dispatcher.shutdown();
+		if (this.bridge!=null) this.bridge.shutdown();
 		this.notifyAll();
-		debug(fname, "END");
+		Log.debug(fname, "END");
 	}
 	
 	/**
 	 * Code to execute the provided onerror callback.
 	 */
 	private void issueErrorCallback() {
-		final Launcher applet = this;
-		final String onerror = this.onerror;
-		if (onerror==null || onerror.length()==0) return;
-		SwingUtilities.invokeLater(new Runnable() {
-			public void run() {
-				final String fname = "issueErrorCallback:invokeLater";
-				try {
-					Class<?> jsObject = Class.forName("netscape.javascript.JSObject");
-					Method getWindow = jsObject.getMethod("getWindow", Applet.class);
-					Method eval = jsObject.getMethod("eval", String.class);
-					Object window = getWindow.invoke(jsObject, applet);
-					String cbc = "("  + onerror + ")();";
-					debug(fname, "issuing callback: " + cbc);
-					eval.invoke(window, new Object[] { cbc });
-				} catch(Exception e) {
-					debug(fname, "problem occurred issuing callback");
-					e.printStackTrace(System.out);
-				}
-			}
-		});
+		if (this.onerror==null || this.onerror.length()==0) return;
+		this.issueCallback("("  + this.onerror + ")();");
+	}
+
+	/**
+	 * Evaluate the supplied callback code in the page, off the calling thread, together with any others
+	 * issued within the bridge's flush interval.
+	 * @param cbc JavaScript code to evaluate in the applet's window.
+	 */
+	private void issueCallback(String cbc) {
+		Log.debug("Launcher:issueCallback()", "queueing callback: {}", cbc);
+		this.bridge.post(cbc);
 	}
 
 	/**
@@ -371,41 +525,300 @@ public class Launcher extends Applet {
 	 * @return
 	 */
 	public Object exec( String language, String code ) {
+		return this.exec(language, code, null, null);
+	}
+	
+	/**
+	 * Execute code with per-job options and wait for the outcome.
+	 * @param options Options string such as "timeout=500&instructions=1000000&priority=background&caller=frame1" (see JobOptions), may be null.
+	 * @return Results tuple; a job which runs past its deadline fails with a TimeoutException.
+	 */
+	public Object exec( String language, String code, String options ) {
+		return this.exec(language, code, null, options);
+	}
+	
+	/**
+	 * Execute code with arguments and wait for the outcome.
+	 * The arguments are bound to the name "args" rather than spliced into the code, so calling the same code
+	 * with different arguments reuses one compiled script.
+	 * @param args Argument values, may be null.
+	 */
+	public Object exec( String language, String code, Object[] args ) {
+		return this.exec(language, code, args, null);
+	}
+	
+	/**
+	 * Execute code with arguments and per-job options, and wait for the outcome.
+	 * @param args Argument values bound to the name "args", may be null.
+	 * @param options Options string as accepted by exec(language, code, options), may be null.
+	 */
+	public Object exec( String language, String code, Object[] args, String options ) {
 		
 		final String fname = "Launcher:exec()";
 		
 		if (!this.privileged) {
-			debug(fname, "applet is not running in privileged mode, exiting!");
-			return this.listWrap(null, new RuntimeException("Applet is not running in privileged mode."));
+			Log.debug(fname, "applet is not running in privileged mode, exiting!");
+			return listWrap(null, new RuntimeException("Applet is not running in privileged mode."));
 		}
 		
-		debug(fname, "creating new Job");
-		Job job = new Job( language, code );
+		if (this.failure!=null) return listWrap(null, this.failure);
+		
+		Log.debug(fname, "creating new Job");
+		Job job = JobOptions.parse(options).applyTo(new Job( language, code, args ));
 
-		synchronized (job) {
-			
-			debug(fname, "placing Job in the Drop zone...");
-			this.drop.put( job );
-			
-			debug(fname, "Job placed in Drop, waiting for results...");
-			while (!job.isFinished()) {
-				try {
-					job.wait();
-				} catch (InterruptedException e) { }
+		Log.debug(fname, "handing Job to the dispatcher...");
+		if (!this.dispatcher.offer( job, true )) Log.debug(fname, "dispatcher is busy, returning at once");
+		
+		Log.debug(fname, "Job dispatched, waiting for results...");
+		this.await(job);
+
+		return this.results(job);
+		
+	}
+	
+	/**
+	 * Execute several snippets back-to-back on one executor, in a single call.
+	 * @param languages The script language of each snippet.
+	 * @param codes The code of each snippet (must be the same length as languages).
+	 * @param stopOnFailure Whether to skip the remaining snippets once one fails.
+	 * @return List holding one result tuple per snippet, each as returned by exec() - or, if the batch could not be
+	 *         run at all, a single such tuple holding the error, told apart by its first element being a Boolean.
+	 */
+	public Object execBatch( String[] languages, String[] codes, boolean stopOnFailure ) {
+		
+		final String fname = "Launcher:execBatch()";
+		
+		if (!this.privileged) {
+			Log.debug(fname, "applet is not running in privileged mode, exiting!");
+			return listWrap(null, new RuntimeException("Applet is not running in privileged mode."));
+		}
+		if (this.failure!=null) return listWrap(null, this.failure);
+		if (languages==null || codes==null || languages.length!=codes.length) {
+			return listWrap(null, new IllegalArgumentException("Batch requires one language per code snippet."));
+		}
+		
+		ArrayList<Object> results = new ArrayList<Object>(codes.length);
+		if (codes.length==0) return results;
+		
+		List<Job> jobs = new ArrayList<Job>(codes.length);
+		for (int i=0; i<codes.length; i++) jobs.add(new Job( languages[i], codes[i] ));
+		BatchJob batch = new BatchJob(jobs, stopOnFailure);
+		
+		Log.debug(fname, "dispatching batch of {} jobs", jobs.size());
+		this.dispatcher.offer( batch );
+		this.await(batch);
+		
+		for (Job job: jobs) results.add(this.results(job));
+		return results;
+		
+	}
+	
+	/**
+	 * Submit code for execution without waiting for it to finish.
+	 * If an oncomplete callback was supplied as an applet param, it is called with the job id once the job finishes.
+	 * If an onoutput callback was supplied, it is called with the job id when a job capturing its output writes more,
+	 * at most once per job per callback flush interval.
+	 * @param language The script language.
+	 * @param code The code to execute.
+	 * @return Handle of the submitted job, for use with poll(), await() and cancel(), or -1 if the applet is not
+	 *         privileged or failed to start.
+	 */
+	public long execAsync( String language, String code ) {
+		return this.execAsync(language, code, null);
+	}
+	
+	/**
+	 * Submit code for execution with per-job options, without waiting for it to finish.
+	 * @param options Options string as accepted by exec(), may be null.
+	 * @return Handle of the submitted job, as returned by execAsync(language, code).
+	 */
+	public long execAsync( String language, String code, String options ) {
+		
+		final String fname = "Launcher:execAsync()";
+		
+		if (!this.privileged) {
+			Log.debug(fname, "applet is not running in privileged mode, exiting!");
+			return -1;
+		}
+		
+		final Job job = JobOptions.parse(options).applyTo(new Job( language, code ));
+		this.pending.put(job.getId(), job);
+		// Checked after the job is pending, so that it is either refused here or failed by the bootstrap
+		if (this.failure!=null) {
+			this.pending.remove(job.getId());
+			return -1;
+		}
+		final String oncomplete = this.oncomplete;
+		job.setListener(new JobListener() {
+			public void jobFinished(Job job) {
+				synchronized(finished) {
+					if (pending.remove(job.getId())!=null) finished.put(job.getId(), job);
+				}
+				if (oncomplete!=null) issueCallback("(" + oncomplete + ")(" + job.getId() + ");");
+			}
+		});
+		if (this.onoutput!=null && job.getOutput()!=null) {
+			// Notifications coalesce per job, so a chatty script costs the page one call per flush interval
+			final BrowserBridge bridge = this.bridge;
+			final String key = "output:" + job.getId();
+			final String cbc = "(" + this.onoutput + ")(" + job.getId() + ");";
+			Runnable notify = new Runnable() {
+				public void run() {
+					bridge.post(key, cbc);
+				}
+			};
+			job.getOutput().setListener(notify);
+			job.getErrorOutput().setListener(notify);
+		}
+		
+		if (Log.isDebugEnabled()) Log.debug(fname, "dispatching Job {}", job.getId());
+		this.dispatcher.offer( job );
+		return job.getId();
+		
+	}
+	
+	/**
+	 * Make a library available to scripts as a module, so that it is sent and compiled only once rather than with
+	 * every job. Scripts then load it with require(name) (see ModuleLoader).
+	 * @param name Name the module is required by.
+	 * @param language Language of the source.
+	 * @param source The module's code.
+	 * @return Whether the module was registered (false if the applet is not privileged or not yet initialized).
+	 */
+	public boolean registerModule( String name, String language, String source ) {
+		if (!this.privileged || this.modules==null) return false;
+		this.modules.register(name, language, source);
+		return true;
+	}
+	
+	/**
+	 * Check on an asynchronously submitted job without blocking.
+	 * Once the results have been returned, the handle is forgotten; so is a finished job whose results are never
+	 * collected, once a few hundred more have finished.
+	 * @param id Handle returned by execAsync().
+	 * @return Results as returned by exec(), or null if the job has not finished (or is unknown).
+	 */
+	public Object poll( long id ) {
+		Job job = this.uncollected(id);
+		if (job==null || !job.isFinished()) return null;
+		this.collect(job);
+		return this.results(job);
+	}
+	
+	/**
+	 * Wait for an asynchronously submitted job to finish.
+	 * Once the results have been returned, the handle is forgotten.
+	 * @param id Handle returned by execAsync().
+	 * @param timeout Maximum time to wait in milliseconds, or zero to wait indefinitely.
+	 * @return Results as returned by exec(), or null if the job did not finish in time (or is unknown).
+	 */
+	public Object await( long id, long timeout ) {
+		Job job = this.uncollected(id);
+		if (job==null || !job.await(timeout)) return null;
+		this.collect(job);
+		return this.results(job);
+	}
+	
+	/**
+	 * Read the output an asynchronously submitted job has captured (see the "output" exec option), while it runs
+	 * or shortly after its results were collected. Output beyond the job's buffer size is dropped, oldest first.
+	 * @param id Handle returned by execAsync().
+	 * @param stream "out" or "err".
+	 * @param from Position to read from: zero at first, then the "next" position of the previous chunk.
+	 * @return JSON object string {"text":..,"next":..,"dropped":..,"finished":..}, or null if the job is unknown
+	 *         or does not capture its output.
+	 */
+	public String readOutput( long id, String stream, long from ) {
+		Job job = this.uncollected(id);
+		if (job==null) job = this.collected.get(id);
+		if (job==null) return null;
+		OutputBuffer buffer = "err".equals(stream) ? job.getErrorOutput() : job.getOutput();
+		if (buffer==null) return null;
+		boolean finished = job.isFinished();
+		OutputBuffer.Chunk chunk = buffer.read(from);
+		StringBuilder sb = new StringBuilder(chunk.text.length() + 64);
+		sb.append("{\"text\":").append(JsonWriter.quote(chunk.text));
+		sb.append(",\"next\":").append(chunk.next);
+		sb.append(",\"dropped\":").append(chunk.dropped);
+		sb.append(",\"finished\":").append(finished);
+		return sb.append('}').toString();
+	}
+	
+	/**
+	 * @return The async job with the given handle, running or finished, unless its results have been collected.
+	 */
+	private Job uncollected( long id ) {
+		synchronized(this.finished) {
+			Job job = this.pending.get(id);
+			return job!=null ? job : this.finished.get(id);
+		}
+	}
+	
+	/**
+	 * Forget the handle of a job whose results are being returned, keeping its output readable for a while.
+	 */
+	private void collect( Job job ) {
+		synchronized(this.finished) {
+			this.pending.remove(job.getId());
+			this.finished.remove(job.getId());
+		}
+		if (job.getOutput()!=null) this.collected.put(job.getId(), job);
+	}
+	
+	/**
+	 * Cancel an asynchronously submitted job which has not finished yet.
+	 * A running job fails with a CancellationException at once; its worker is interrupted, and replaced if it stays stuck.
+	 * @param id Handle returned by execAsync().
+	 * @return Whether the job was cancelled.
+	 */
+	public boolean cancel( long id ) {
+		Job job = this.pending.get(id);
+		return job!=null && job.cancel();
+	}
+	
+	/**
+	 * Wait for a job to finish - or, should start-up fail meanwhile, fail it, since it will then never run.
+	 * An interrupted caller cancels the job instead of waiting on.
+	 */
+	private void await( Job job ) {
+		while (!job.await(FAILURE_CHECK_INTERVAL)) {
+			if (Thread.currentThread().isInterrupted()) job.cancel();
+			Exception failure = this.failure;
+			if (failure==null || !job.drop(failure)) continue;
+			if (job instanceof BatchJob) {
+				for (Job member: ((BatchJob) job).getJobs()) member.complete(null, failure);
 			}
 		}
+	}
 
+	/**
+	 * Package the outcome of a finished job for the browser.
+	 */
+	private Object results( Job job ) {
+		final String fname = "Launcher:results()";
 		Exception e = job.getException();
 		if (e!=null) {
-			debug(fname, "exception ocurred - " + e.getMessage());
-			e.printStackTrace(System.out);
+			Log.debug(fname, "exception ocurred", e);
 		} else {
-			debug(fname, "results received! [" + job.getResult() + "]");
+			Log.debug(fname, "results received! [{}]", job.getResult());
 		}
 
-		debug(fname, "returning results");
-		return this.listWrap(job.getResult(), e);
-		
+		Log.debug(fname, "returning results");
+		if (job.isJsonResult()) return jsonWrap((String) job.getResult(), e);
+		return listWrap(job.getResult(), e);
+	}
+	
+	/**
+	 * JSON counterpart of listWrap(), for jobs whose result was already serialized by the executor,
+	 * so the whole outcome reaches the page as a single string: {"success":..,"result":..,"error":..}.
+	 * @param json The result as JSON, or null.
+	 */
+	static String jsonWrap(String json, Exception exception) {
+		StringBuilder sb = new StringBuilder(json==null ? 48 : json.length() + 48);
+		sb.append("{\"success\":").append(exception==null);
+		sb.append(",\"result\":").append(json==null ? "null" : json);
+		sb.append(",\"error\":").append(exception==null ? "null" : JsonWriter.quote(exception.toString()));
+		return sb.append('}').toString();
 	}
 	
 	/**
@@ -415,7 +828,7 @@ public class Launcher extends Applet {
 	 * @param Object exception An exception object.
 	 * @return ArrayList Tuple of three elements - a boolean indicating whether an exception was thrown, the result, and the exception.
 	 */
-	private ArrayList<Object> listWrap(Object result, Object exception) {
+	static ArrayList<Object> listWrap(Object result, Object exception) {
 		ArrayList<Object> r = new ArrayList<Object>(3);
 		r.add(exception==null);
 		r.add(result);
@@ -424,69 +837,59 @@ public class Launcher extends Applet {
 	}
 	
 	/**
-	 * Write debugging info out to the Java console.
+	 * Build an anchored pattern from one of the URL regular expressions in trephine.properties.
+	 * @param expression The regular expression as configured.
+	 * @return Pattern matching whole URLs only.
+	 */
+	static Pattern urlPattern(String expression) {
+		return Pattern.compile("\\A(" + expression + ")\\Z");
+	}
+	
+	/**
+	 * Write debugging info out to the Java console (through Log).
+	 * Callers on hot paths should use Log.debug() with placeholders so that disabled messages are never built.
 	 */
 	public static void debug(String fname, Object msg) {
-		if (Launcher.debugEnabled) {
-			System.out.println(fname + " - " + msg);
-			System.out.flush();
-		}
+		if (Log.isDebugEnabled()) Log.debug(fname, "{}", msg);
 	}
 	
-	public static boolean isDebugEnabled() { return debugEnabled; }
-	public static void enableDebug() { Launcher.debugEnabled = true; }
+	public static boolean isDebugEnabled() { return Log.isDebugEnabled(); }
+	public static void enableDebug() { Log.setLevel(Log.DEBUG); }
 	public static String getVersion() { return version; }
 
 	public boolean isPrivileged() { return privileged; }
 	public boolean isDestroyed() { return destroyed; }
 
-	public List<String> getEngines() {
-		return java.util.Collections.unmodifiableList(this.engines);
+	/**
+	 * @return Execution statistics (latencies, throughput, queue depth, engine creations) as a JSON object string.
+	 */
+	public String getStats() {
+		return this.dispatcher==null ? "{}" : this.dispatcher.getStats().getSummary();
 	}
 
 	/**
-	 * Alternative policy which evaluates code permissions based on the ThreadGroup hierarchy.
-	 * Requires parent policy reference to which to defer when ThreadGroup membership test fails. 
+	 * @return Startup timings of the preloaded engines, as a JSON object string.
 	 */
-	public class ThreadOrientedPolicy extends Policy {
-		
-		final private Policy parentPolicy;
-		final private Launcher launcher;
-		
-		private boolean inCheck = false;
+	public String getEngineTimings() {
+		return this.dispatcher==null ? "{}" : this.dispatcher.getEngineTimings();
+	}
 
-		private ThreadOrientedPolicy(Policy policy, Launcher launcher) {
-			this.parentPolicy = policy;
-			this.launcher = launcher;
-			debug("ThreadOrientedPolicy:constructor()", "initialized with parent " + this.parentPolicy);
-		}
+	/**
+	 * @return Milliseconds spent making the dependency jars available, or zero if none were needed.
+	 */
+	public long getBootstrapTime() { return bootstrapTime; }
 
-		@Override
-		public PermissionCollection getPermissions(CodeSource codesource) {
-			return this.getExtendedPermissions(this.parentPolicy.getPermissions(codesource));
-		}
+	/**
+	 * @return Status, start and duration of each startup phase (see Bootstrap), as a JSON object string.
+	 */
+	public String getBootstrapTimings() {
+		return this.bootstrap==null ? "{}" : this.bootstrap.getTimings();
+	}
 
-		@Override
-		public PermissionCollection getPermissions(ProtectionDomain domain) {
-			return this.getExtendedPermissions(this.parentPolicy.getPermissions(domain));
-		}
-		
-		/**
-		 * Adds the magical AllPermission to the provided collection if applicable.
-		 * @param permissions
-		 * @return
-		 */
-		private PermissionCollection getExtendedPermissions(PermissionCollection permissions) {
-			if (this.launcher.isDestroyed()) return permissions;
-			if (this.inCheck) return permissions;
-			this.inCheck = true;
-			if (Thread.currentThread().getThreadGroup().parentOf(this.launcher.thread.getThreadGroup())) {
-				permissions.add(new AllPermission());
-			}
-			this.inCheck = false;
-			return permissions;
-		}
+	public int getScriptCacheSize() { return scriptCacheSize; }
 
+	public List<String> getEngines() {
+		return java.util.Collections.unmodifiableList(this.engines);
 	}
 	
 }
@@ -0,0 +1,89 @@
+package org.trephine;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+/**
+ * Levelled logging with parameterized messages. Messages are only formatted when their level is enabled,
+ * and the fixed-arity methods avoid even a varargs array, so a disabled call allocates nothing. Enabled
+ * messages are formatted on the calling thread and handed to an asynchronous LogAppender, which writes
+ * them to the console in batches instead of a println and flush per line.
+ * <p>
+ * Placeholders are written as {} and replaced in order by the supplied arguments.
+ */
+public final class Log {
+
+	public static final int ERROR = 0;
+	public static final int WARN = 1;
+	public static final int INFO = 2;
+	public static final int DEBUG = 3;
+
+	private static final String[] NAMES = { "ERROR", "WARN", "INFO", "DEBUG" };
+
+	private static volatile int level = WARN;
+	private static volatile LogAppender appender;
+
+	private Log() {}
+
+	public static int getLevel() { return level; }
+	public static void setLevel(int level) { Log.level = level; }
+
+	public static boolean isEnabled(int level) { return level <= Log.level; }
+	public static boolean isDebugEnabled() { return DEBUG <= level; }
+
+	public static void debug(String fname, String msg) { if (DEBUG <= level) log(DEBUG, fname, msg, null, null, null, 0, null); }
+	public static void debug(String fname, String msg, Object a) { if (DEBUG <= level) log(DEBUG, fname, msg, a, null, null, 1, null); }
+	public static void debug(String fname, String msg, Object a, Object b) { if (DEBUG <= level) log(DEBUG, fname, msg, a, b, null, 2, null); }
+	public static void debug(String fname, String msg, Object a, Object b, Object c) { if (DEBUG <= level) log(DEBUG, fname, msg, a, b, c, 3, null); }
+	public static void debug(String fname, String msg, Throwable t) { if (DEBUG <= level) log(DEBUG, fname, msg, null, null, null, 0, t); }
+
+	public static void info(String fname, String msg) { if (INFO <= level) log(INFO, fname, msg, null, null, null, 0, null); }
+	public static void info(String fname, String msg, Object a) { if (INFO <= level) log(INFO, fname, msg, a, null, null, 1, null); }
+	public static void info(String fname, String msg, Object a, Object b) { if (INFO <= level) log(INFO, fname, msg, a, b, null, 2, null); }
+
+	public static void warn(String fname, String msg) { if (WARN <= level) log(WARN, fname, msg, null, null, null, 0, null); }
+	public static void warn(String fname, String msg, Object a) { if (WARN <= level) log(WARN, fname, msg, a, null, null, 1, null); }
+	public static void warn(String fname, String msg, Object a, Object b) { if (WARN <= level) log(WARN, fname, msg, a, b, null, 2, null); }
+	public static void warn(String fname, String msg, Object a, Object b, Object c) { if (WARN <= level) log(WARN, fname, msg, a, b, c, 3, null); }
+	public static void warn(String fname, String msg, Throwable t) { if (WARN <= level) log(WARN, fname, msg, null, null, null, 0, t); }
+
+	public static void error(String fname, String msg) { if (ERROR <= level) log(ERROR, fname, msg, null, null, null, 0, null); }
+	public static void error(String fname, String msg, Object a) { if (ERROR <= level) log(ERROR, fname, msg, a, null, null, 1, null); }
+	public static void error(String fname, String msg, Throwable t) { if (ERROR <= level) log(ERROR, fname, msg, null, null, null, 0, t); }
+
+	/**
+	 * Format an enabled message and pass it to the appender.
+	 */
+	private static void log(int level, String fname, String msg, Object a, Object b, Object c, int argc, Throwable t) {
+		StringBuilder sb = new StringBuilder(fname.length() + msg.length() + 48);
+		sb.append(NAMES[level]).append(' ').append(fname).append(" - ");
+		int arg = 0, from = 0, at;
+		while (arg < argc && (at = msg.indexOf("{}", from)) >= 0) {
+			sb.append(msg, from, at).append(arg==0 ? a : arg==1 ? b : c);
+			from = at + 2;
+			arg++;
+		}
+		sb.append(msg, from, msg.length());
+		if (t!=null) {
+			StringWriter trace = new StringWriter();
+			t.printStackTrace(new PrintWriter(trace));
+			sb.append('\n').append(trace.toString().trim());
+		}
+		appender().append(sb.toString());
+	}
+
+	private static LogAppender appender() {
+		LogAppender current = appender;
+		if (current==null) {
+			synchronized (Log.class) {
+				current = appender;
+				if (current==null) {
+					current = appender = new LogAppender(System.out, 4096);
+					current.start();
+				}
+			}
+		}
+		return current;
+	}
+
+}
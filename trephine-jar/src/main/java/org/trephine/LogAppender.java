@@ -0,0 +1,95 @@
+package org.trephine;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Background writer for Log. Formatted lines go into a bounded ring of preallocated slots which a daemon
+ * thread drains in batches, flushing once per batch. Logging threads never block on the console: when
+ * the ring is full the line is dropped and counted, and the count is reported with the next batch.
+ */
+public class LogAppender extends Thread {
+
+	private static final long IDLE_PARK_NANOS = 10000000L;
+
+	private final PrintStream out;
+	private final int mask;
+	private final AtomicReferenceArray<String> lines;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private long head = 0;
+
+	/**
+	 * @param out Stream to write to.
+	 * @param capacity Number of lines buffered; rounded up to the next power of two.
+	 */
+	public LogAppender( PrintStream out, int capacity ) {
+		super("trephine-log");
+		int size = 1;
+		while (size < capacity) size <<= 1;
+		this.out = out;
+		this.mask = size - 1;
+		this.lines = new AtomicReferenceArray<String>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i=0; i<size; i++) this.sequences.set(i, i);
+		this.setDaemon(true);
+	}
+
+	/**
+	 * Queue a line for writing; never blocks.
+	 * @return Whether the line was accepted (false if it had to be dropped).
+	 */
+	public boolean append( String line ) {
+		while (true) {
+			long pos = this.tail.get();
+			int index = (int) (pos & this.mask);
+			long diff = this.sequences.get(index) - pos;
+			if (diff==0) {
+				if (this.tail.compareAndSet(pos, pos + 1)) {
+					this.lines.set(index, line);
+					this.sequences.set(index, pos + 1);
+					return true;
+				}
+			} else if (diff<0) {
+				this.dropped.incrementAndGet();
+				return false;
+			}
+		}
+	}
+
+	/**
+	 * @return Number of lines dropped because the buffer was full.
+	 */
+	public long getDropped() {
+		return this.dropped.get();
+	}
+
+	public void run() {
+		long reported = 0;
+		while (true) {
+			int written = 0;
+			while (true) {
+				int index = (int) (this.head & this.mask);
+				if (this.sequences.get(index) != this.head + 1) break;
+				this.out.println(this.lines.get(index));
+				this.lines.set(index, null);
+				this.sequences.set(index, this.head + this.mask + 1);
+				this.head++;
+				written++;
+			}
+			long dropped = this.dropped.get();
+			if (dropped!=reported) {
+				this.out.println("WARN LogAppender - " + (dropped - reported) + " log line(s) dropped, buffer full");
+				reported = dropped;
+				written++;
+			}
+			if (written>0) this.out.flush();
+			else LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+		}
+	}
+
+}
@@ -6,6 +6,20 @@ package org.trephine;
 public interface Marshal {
 	public String getVersion();
 	public Object exec(String language, String code);
+	public Object exec(String language, String code, String options);
+	public Object exec(String language, String code, Object[] args);
+	public Object exec(String language, String code, Object[] args, String options);
+	public Object execBatch(String[] languages, String[] codes, boolean stopOnFailure);
+	public long execAsync(String language, String code);
+	public long execAsync(String language, String code, String options);
+	public Object poll(long id);
+	public Object await(long id, long timeout);
+	public boolean cancel(long id);
+	public String readOutput(long id, String stream, long from);
+	public boolean registerModule(String name, String language, String source);
+	public String getEngineTimings();
+	public String getBootstrapTimings();
+	public String getStats();
 	public boolean isPrivileged();
 	public boolean isDebugEnabled();
 	public void enableDebug();
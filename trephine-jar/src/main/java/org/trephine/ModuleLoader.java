@@ -0,0 +1,277 @@
+package org.trephine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/**
+ * Loads script modules once per JVM and shares them between all workers, so a library need not be resent
+ * (and reparsed) with every job. Scripts call require(name) - modules.require(name) outside JavaScript - and get
+ * back the module's exports. A module is looked up, in order, among the sources registered by name, the module
+ * directories, and the resources of the script class loader (the trephine jar and any added with addSystemJar).
+ * Its language follows from the file extension, JavaScript when there is none.
+ * <p>
+ * Each module is compiled once by an engine of its language and evaluated once, in a context of its own which
+ * sees the shared globals; every later require() returns the same exports. A JavaScript module's source is
+ * wrapped CommonJS-style, so it may assign exports or module.exports and require other modules; in other
+ * languages the exports are whatever the module binds to "exports", or else the value of its last statement.
+ * Modules may not require each other in a cycle.
+ */
+public class ModuleLoader {
+
+	public static final String DEFAULT_EXTENSION = "js";
+
+	private static final String JS_PREFIX = "(function(){var module = { id: ";
+	private static final String JS_INFIX = ", exports: {} }, exports = module.exports, require = function(name) { return modules.require(name); };\n";
+	private static final String JS_SUFFIX = "\n;return module.exports;})()";
+
+	private final Map<String,Object> environment;
+	private final ScriptEngineManager manager;
+	private final List<File> directories = new CopyOnWriteArrayList<File>();
+	private final ConcurrentMap<String,Module> modules = new ConcurrentHashMap<String,Module>();
+	private final ConcurrentMap<String,String[]> registered = new ConcurrentHashMap<String,String[]>();
+	private final ConcurrentMap<String,ScriptEngine> engines = new ConcurrentHashMap<String,ScriptEngine>();
+
+	/**
+	 * @param environment Shared environment; modules are evaluated with its global scope once initialized.
+	 * @param manager Where engines for each module language come from.
+	 */
+	public ModuleLoader( Map<String,Object> environment, ScriptEngineManager manager ) {
+		this.environment = environment;
+		this.manager = manager;
+	}
+
+	/**
+	 * Bind this loader to "modules" in an engine's scope and, for JavaScript engines, define a global require()
+	 * which delegates to it. Globals set on the host engine before initialization are shared with every worker.
+	 */
+	public void install( ScriptEngine engine ) throws ScriptException {
+		engine.put("modules", this);
+		if (engine.getFactory().getExtensions().contains(DEFAULT_EXTENSION)) {
+			engine.eval("function require(name) { return modules.require(name); }");
+			this.engines.putIfAbsent(DEFAULT_EXTENSION, engine);
+		}
+	}
+
+	/**
+	 * Add a directory to look for modules in, after those added before.
+	 */
+	public void addDirectory( File directory ) {
+		if (!this.directories.contains(directory)) this.directories.add(directory);
+	}
+
+	/**
+	 * @return The module directories, in search order.
+	 */
+	public List<File> getDirectories() {
+		return new ArrayList<File>(this.directories);
+	}
+
+	/**
+	 * Provide a module's source directly. Takes the place of any module of the same name which has not been
+	 * evaluated yet; one which has keeps its exports.
+	 * @param name Name it is required by.
+	 * @param language Language of the source (a name or file extension known to the engine manager).
+	 * @param source The module's code.
+	 */
+	public void register( String name, String language, String source ) {
+		this.registered.put(name, new String[] { language, source });
+		Module module = this.modules.get(name);
+		if (module!=null && !module.loaded) this.modules.remove(name, module);
+	}
+
+	/**
+	 * @return The exports of the named module, loading it first if need be.
+	 * @throws ScriptException If the module cannot be found, compiled or evaluated, or requires itself while loading.
+	 */
+	public Object require( String name ) throws ScriptException {
+		Module module = this.module(name);
+		synchronized(module) {
+			if (module.loaded) return module.exports;
+			if (module.loading) throw new ScriptException("Module " + name + " requires itself while loading");
+			module.loading = true;
+			try {
+				module.exports = this.evaluate(module);
+				module.loaded = true;
+				return module.exports;
+			} finally {
+				module.loading = false;
+			}
+		}
+	}
+
+	/**
+	 * Compile a module's source as is, without evaluating it or wrapping it as a module - for scripts which need
+	 * to run in a particular context, such as Launcher.js. The compiled script is cached like any module.
+	 * @return The compiled script, or null if the language's engine cannot compile.
+	 */
+	public CompiledScript compile( String name ) throws ScriptException {
+		Module module = this.module(name);
+		synchronized(module) {
+			if (module.script==null && module.engine instanceof Compilable) {
+				module.script = ((Compilable) module.engine).compile(module.source);
+			}
+			return module.script;
+		}
+	}
+
+	/**
+	 * Evaluate a module's source as is in the given context, compiled once and cached (see compile()).
+	 * @return The value of the script.
+	 */
+	public Object run( String name, ScriptContext context ) throws ScriptException {
+		CompiledScript script = this.compile(name);
+		if (script!=null) return script.eval(context);
+		return this.module(name).engine.eval(this.module(name).source, context);
+	}
+
+	/**
+	 * @return Whether the named module has been loaded and evaluated.
+	 */
+	public boolean isLoaded( String name ) {
+		Module module = this.modules.get(name);
+		return module!=null && module.loaded;
+	}
+
+	/**
+	 * @return Number of modules found so far, loaded or merely compiled.
+	 */
+	public int size() {
+		return this.modules.size();
+	}
+
+	/**
+	 * Find a module and read its source, once.
+	 */
+	private Module module( String name ) throws ScriptException {
+		Module module = this.modules.get(name);
+		if (module!=null) return module;
+		try {
+			module = this.find(name);
+		} catch (IOException e) {
+			throw (ScriptException) new ScriptException("Unable to read module " + name + " - " + e).initCause(e);
+		}
+		Module existing = this.modules.putIfAbsent(name, module);
+		return existing==null ? module : existing;
+	}
+
+	private Module find( String name ) throws IOException, ScriptException {
+		final String fname = "ModuleLoader:find()";
+		String[] source = this.registered.get(name);
+		if (source!=null) {
+			Log.debug(fname, "{} is registered", name);
+			return new Module(name, this.engine(source[0]), source[1]);
+		}
+		String path = extension(name)==null ? name + "." + DEFAULT_EXTENSION : name;
+		ScriptEngine engine = this.engine(extension(path));
+		for (File directory: this.directories) {
+			File file = new File(directory, path);
+			if (file.isFile()) {
+				Log.debug(fname, "{} found at {}", name, file);
+				return new Module(name, engine, read(new FileInputStream(file)));
+			}
+		}
+		URL url = Executor.classLoader(this.environment).getResource(path.startsWith("/") ? path.substring(1) : path);
+		if (url!=null) {
+			Log.debug(fname, "{} found at {}", name, url);
+			return new Module(name, engine, read(url.openStream()));
+		}
+		throw new ScriptException("Module " + name + " not found");
+	}
+
+	/**
+	 * Evaluate a module in a fresh context of its own, which sees the shared globals.
+	 */
+	private Object evaluate( Module module ) throws ScriptException {
+		ScriptContext context = new SimpleScriptContext();
+		context.setBindings(module.engine.createBindings(), ScriptContext.ENGINE_SCOPE);
+		ScriptContext host;
+		synchronized(this.environment) {
+			host = (ScriptContext) this.environment.get("context");
+		}
+		if (host!=null) Executor.bindGlobals(context, this.environment, host);
+		context.setAttribute("modules", this, ScriptContext.ENGINE_SCOPE);
+		if (module.isJavaScript()) {
+			String source = JS_PREFIX + JsonWriter.quote(module.name) + JS_INFIX + module.source + JS_SUFFIX;
+			if (!(module.engine instanceof Compilable)) return module.engine.eval(source, context);
+			return ((Compilable) module.engine).compile(source).eval(context);
+		}
+		CompiledScript script = this.compile(module.name);
+		Object result = script==null ? module.engine.eval(module.source, context) : script.eval(context);
+		Object exports = context.getAttribute("exports", ScriptContext.ENGINE_SCOPE);
+		return exports!=null ? exports : result;
+	}
+
+	/**
+	 * @return The loader's engine for a language or extension, created on first use.
+	 */
+	private ScriptEngine engine( String language ) throws ScriptException {
+		ScriptEngine engine = this.engines.get(language);
+		if (engine!=null) return engine;
+		engine = this.manager.getEngineByExtension(language);
+		if (engine==null) engine = this.manager.getEngineByName(language);
+		if (engine==null) throw new ScriptException("No script engine for modules in " + language);
+		ScriptEngine existing = this.engines.putIfAbsent(language, engine);
+		return existing==null ? engine : existing;
+	}
+
+	private static String extension( String path ) {
+		int dot = path.lastIndexOf('.');
+		return dot<=path.lastIndexOf('/') ? null : path.substring(dot + 1);
+	}
+
+	private static String read( InputStream in ) throws IOException {
+		Reader reader = new InputStreamReader(in, "UTF-8");
+		try {
+			StringWriter out = new StringWriter();
+			char[] buffer = new char[8192];
+			for (int n; (n = reader.read(buffer))>0; ) out.write(buffer, 0, n);
+			return out.toString();
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * One module: its source and the engine of its language, then its compiled form and exports as they are needed.
+	 */
+	private static class Module {
+		final String name;
+		final ScriptEngine engine;
+		final String source;
+		CompiledScript script;
+		Object exports;
+		boolean loaded = false;
+		boolean loading = false;
+
+		Module( String name, ScriptEngine engine, String source ) {
+			this.name = name;
+			this.engine = engine;
+			this.source = source;
+		}
+
+		boolean isJavaScript() {
+			return this.engine.getFactory().getExtensions().contains(DEFAULT_EXTENSION);
+		}
+	}
+
+}
@@ -0,0 +1,115 @@
+package org.trephine;
+
+import java.io.Writer;
+
+/**
+ * Writer capturing one stream of a job's output (see Job.captureOutput) in a bounded ring of characters.
+ * Once the ring is full the oldest output is overwritten, so a chatty script costs at most the capacity.
+ * Readers follow along by position - the total number of characters written so far - and can tell how much
+ * they missed. The ring is only allocated (and grown) as output arrives, so capturing a quiet job is cheap.
+ */
+public class OutputBuffer extends Writer {
+
+	public static final int DEFAULT_CAPACITY = 16384;
+	/** Largest capacity a job may ask for through its options (per stream), so a page cannot pin down arbitrary memory. */
+	public static final int MAX_CAPACITY = 1 << 20;
+
+	private static final char[] EMPTY = new char[0];
+
+	private final int capacity;
+	private char[] ring = EMPTY;
+	private long written = 0;
+	private volatile Runnable listener;
+
+	/**
+	 * @param capacity Maximum number of characters kept.
+	 */
+	public OutputBuffer( int capacity ) {
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * @param listener Run after every write (with the buffer locked), for example to let a reader know there is more; may be null.
+	 */
+	public void setListener( Runnable listener ) {
+		this.listener = listener;
+	}
+
+	@Override
+	public synchronized void write( char[] chars, int offset, int length ) {
+		if (length>this.capacity) {
+			// Only the tail can survive, skip straight to it
+			this.written += length - this.capacity;
+			offset += length - this.capacity;
+			length = this.capacity;
+		}
+		long needed = this.written + length;
+		if (this.ring.length<this.capacity && needed>this.ring.length) {
+			char[] grown = new char[(int) Math.min(this.capacity, Math.max(needed, this.ring.length * 2L))];
+			System.arraycopy(this.ring, 0, grown, 0, (int) Math.min(this.written, this.ring.length));
+			this.ring = grown;
+		}
+		while (length>0) {
+			int position = (int) (this.written % this.capacity);
+			int n = Math.min(length, this.capacity - position);
+			System.arraycopy(chars, offset, this.ring, position, n);
+			this.written += n;
+			offset += n;
+			length -= n;
+		}
+		Runnable listener = this.listener;
+		if (listener!=null) listener.run();
+	}
+
+	@Override
+	public void flush() {
+	}
+
+	@Override
+	public void close() {
+	}
+
+	/**
+	 * @return Total number of characters written so far, including any which have been dropped.
+	 */
+	public synchronized long getWritten() {
+		return this.written;
+	}
+
+	/**
+	 * Read everything written from the given position onwards that is still held.
+	 * @param from Position to read from, usually the previous chunk's next position (zero to start).
+	 */
+	public synchronized Chunk read( long from ) {
+		long oldest = Math.max(0, this.written - this.capacity);
+		long dropped = 0;
+		if (from<oldest) {
+			dropped = oldest - from;
+			from = oldest;
+		}
+		if (from>this.written) from = this.written;
+		int length = (int) (this.written - from);
+		char[] text = new char[length];
+		int position = (int) (from % this.capacity);
+		int first = Math.min(length, this.capacity - position);
+		System.arraycopy(this.ring, position, text, 0, first);
+		System.arraycopy(this.ring, 0, text, first, length - first);
+		return new Chunk(new String(text), this.written, dropped);
+	}
+
+	/**
+	 * A piece of output, with the position to continue reading from and how many characters were lost before it.
+	 */
+	public static class Chunk {
+		public final String text;
+		public final long next;
+		public final long dropped;
+
+		Chunk( String text, long next, long dropped ) {
+			this.text = text;
+			this.next = next;
+			this.dropped = dropped;
+		}
+	}
+
+}
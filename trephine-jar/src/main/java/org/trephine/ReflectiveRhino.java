@@ -0,0 +1,131 @@
+package org.trephine;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Reaches a copy of Rhino which trephine was not compiled against - the one built into the JDK, under
+ * sun.org.mozilla.javascript.internal - through reflection, for what RhinoJson does directly with js.jar.
+ */
+class ReflectiveRhino {
+
+	static final String JDK_PACKAGE = "sun.org.mozilla.javascript.internal.";
+
+	private static ReflectiveRhino jdk;
+
+	private final Method getGlobal;
+	private final Method enterContext;
+	private final Method exit;
+	private final Method initStandardObjects;
+	private final Method newArray;
+
+	private final Class<?> scriptable;
+	private final Class<?> nativeArray;
+	private final Class<?> function;
+	private final Class<?> undefined;
+	private final Class<?> wrapper;
+	private final Method getIds;
+	private final Method getByName;
+	private final Method getByIndex;
+	private final Method getLength;
+	private final Method unwrap;
+	private final Object notFound;
+
+	// Standard objects the argument arrays take their prototype from, sealed since every worker shares them
+	private Object scope;
+
+	/**
+	 * @param prefix Package of the Rhino copy, ending with a dot.
+	 * @param loader Loader the engine came from (null for the bootstrap loader).
+	 * @throws ClassNotFoundException If that copy of Rhino is not there.
+	 * @throws NoSuchMethodException If it is too different from the one trephine knows.
+	 */
+	ReflectiveRhino( String prefix, ClassLoader loader ) throws ClassNotFoundException, NoSuchMethodException, NoSuchFieldException, IllegalAccessException {
+		Class<?> factory = Class.forName(prefix + "ContextFactory", true, loader);
+		Class<?> context = Class.forName(prefix + "Context", true, loader);
+		this.scriptable = Class.forName(prefix + "Scriptable", true, loader);
+		this.nativeArray = Class.forName(prefix + "NativeArray", true, loader);
+		this.function = Class.forName(prefix + "Function", true, loader);
+		this.undefined = Class.forName(prefix + "Undefined", true, loader);
+		this.wrapper = Class.forName(prefix + "Wrapper", true, loader);
+		this.getGlobal = factory.getMethod("getGlobal");
+		this.enterContext = factory.getMethod("enterContext");
+		this.exit = context.getMethod("exit");
+		this.initStandardObjects = context.getMethod("initStandardObjects", Class.forName(prefix + "ScriptableObject", true, loader), boolean.class);
+		this.newArray = context.getMethod("newArray", this.scriptable, Object[].class);
+		this.getIds = this.scriptable.getMethod("getIds");
+		this.getByName = this.scriptable.getMethod("get", String.class, this.scriptable);
+		this.getByIndex = this.scriptable.getMethod("get", int.class, this.scriptable);
+		this.getLength = this.nativeArray.getMethod("getLength");
+		this.unwrap = this.wrapper.getMethod("unwrap");
+		this.notFound = this.scriptable.getField("NOT_FOUND").get(null);
+	}
+
+	/**
+	 * @param loader Loader of a class from the JDK's copy of Rhino.
+	 * @return The JDK's copy of Rhino, looked up once.
+	 */
+	static synchronized ReflectiveRhino jdk( ClassLoader loader ) throws Exception {
+		if (jdk==null) jdk = new ReflectiveRhino(JDK_PACKAGE, loader);
+		return jdk;
+	}
+
+	/**
+	 * As RhinoJson.toArray(), for this copy of Rhino.
+	 */
+	Object toArray( Object[] args ) throws Exception {
+		Object cx = this.enterContext.invoke(this.getGlobal.invoke(null));
+		try {
+			return this.newArray.invoke(cx, this.scope(cx), args.clone());
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof Exception) throw (Exception) e.getCause();
+			throw e;
+		} finally {
+			this.exit.invoke(null);
+		}
+	}
+
+	private synchronized Object scope( Object cx ) throws Exception {
+		if (this.scope==null) this.scope = this.initStandardObjects.invoke(cx, null, Boolean.TRUE);
+		return this.scope;
+	}
+
+	/**
+	 * As RhinoJson.write(), for this copy of Rhino.
+	 */
+	void write( JsonWriter writer, Object value, int depth ) throws Exception {
+		if (this.undefined.isInstance(value) || this.function.isInstance(value)) {
+			writer.buffer().append("null");
+		} else if (this.wrapper.isInstance(value)) {
+			writer.value(this.unwrap.invoke(value), depth);
+		} else if (this.nativeArray.isInstance(value)) {
+			writer.enter(value, depth);
+			writer.buffer().append('[');
+			long length = ((Number) this.getLength.invoke(value)).longValue();
+			for (int i=0; i<length; i++) {
+				if (i>0) writer.buffer().append(',');
+				Object element = this.getByIndex.invoke(value, i, value);
+				writer.value(element==this.notFound ? null : element, depth + 1);
+			}
+			writer.buffer().append(']');
+			writer.leave(value);
+		} else if (this.scriptable.isInstance(value)) {
+			writer.enter(value, depth);
+			writer.buffer().append('{');
+			boolean first = true;
+			for (Object id: (Object[]) this.getIds.invoke(value)) {
+				Object property = id instanceof Number ? this.getByIndex.invoke(value, ((Number) id).intValue(), value) : this.getByName.invoke(value, id.toString(), value);
+				if (property==this.notFound || this.function.isInstance(property) || this.undefined.isInstance(property)) continue;
+				if (!first) writer.buffer().append(',');
+				first = false;
+				writer.property(id.toString(), property, depth);
+			}
+			writer.buffer().append('}');
+			writer.leave(value);
+		} else {
+			writer.value(value.toString(), depth);
+		}
+		writer.checkSize();
+	}
+
+}
@@ -0,0 +1,239 @@
+package org.trephine;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Memoizes the results of cacheable jobs (see Job.getCacheTtl), keyed on canonical language name, code, arguments and
+ * result format. A job whose result is cached and still fresh is answered without being queued at all. Otherwise
+ * identical jobs which arrive while one is already running share that one execution: the first request queues a
+ * private copy of the job, and every request - the first included - is completed from the copy's outcome.
+ * Only successful results are kept, evicting the least recently used beyond the capacity.
+ * <p>
+ * Every job answered this way gets the very same result object, so only immutable results - strings (JSON results
+ * included), booleans and boxed numbers - are cached or shared. Should a shared execution produce anything else, the
+ * first request keeps it and the others are queued again to be evaluated on their own.
+ * <p>
+ * Arguments are keyed by their text, so only jobs whose arguments are all strings, booleans, numbers or null are
+ * cached; any other argument (a script object, a Java object) bypasses the cache, since distinct objects can print alike.
+ * So do jobs capturing their output, which only a job's own evaluation can produce.
+ */
+public class ResultCache {
+
+	public static final long DEFAULT_TTL = 60000;
+
+	private final Map<String,Cached> entries;
+	private final ConcurrentMap<String,Flight> flights = new ConcurrentHashMap<String,Flight>();
+	private final Stats stats;
+	private final Dispatcher dispatcher;
+
+	/**
+	 * @param capacity Maximum number of results kept.
+	 * @param stats Where cache hits and shared executions are counted.
+	 * @param dispatcher Where jobs go which could not share an execution after all.
+	 */
+	public ResultCache( final int capacity, Stats stats, Dispatcher dispatcher ) {
+		this.stats = stats;
+		this.dispatcher = dispatcher;
+		this.entries = new LinkedHashMap<String,Cached>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<String,Cached> eldest ) {
+				return this.size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Answer a cacheable job from the cache, or attach it to an identical job already in flight.
+	 * @param language Canonical name of the job's language, so that all of a language's names share entries.
+	 * @return A job to queue in its place (the job itself if it cannot be cached), or null if nothing needs to be queued.
+	 */
+	public Job claim( Job job, String language ) {
+		if (job.getOutput()!=null || !isKeyable(job.getArgs())) return job;
+		final String key = key(job, language);
+		Object cached = this.get(key);
+		if (cached!=null) {
+			job.markDequeued();
+			job.complete(cached, null);
+			this.stats.recordCacheHit();
+			return null;
+		}
+		Flight flight = new Flight();
+		Flight existing = this.flights.putIfAbsent(key, flight);
+		if (existing!=null) {
+			if (!existing.join(job)) return job;
+			this.stats.recordSharedExecution();
+			return null;
+		}
+		flight.join(job);
+		final long ttl = TimeUnit.MILLISECONDS.toNanos(job.getCacheTtl());
+		final Flight leader = flight;
+		Job shared = copy(job);
+		shared.setListener(new JobListener() {
+			public void jobFinished( Job shared ) {
+				boolean immutable = isImmutable(shared.getResult());
+				if (shared.getSuccess() && shared.getResult()!=null && immutable) put(key, shared.getResult(), ttl);
+				flights.remove(key, leader);
+				for (Job job: leader.finish(shared.getResult(), shared.getException(), immutable)) {
+					job.setCacheTtl(0);
+					dispatcher.offer(job);
+				}
+			}
+		});
+		return shared;
+	}
+
+	/**
+	 * @return Number of results currently cached (including expired ones not yet evicted).
+	 */
+	public int size() {
+		synchronized(this.entries) {
+			return this.entries.size();
+		}
+	}
+
+	public void clear() {
+		synchronized(this.entries) {
+			this.entries.clear();
+		}
+	}
+
+	private Object get( String key ) {
+		synchronized(this.entries) {
+			Cached entry = this.entries.get(key);
+			if (entry==null) return null;
+			if (System.nanoTime() - entry.expires >= 0) {
+				this.entries.remove(key);
+				return null;
+			}
+			return entry.result;
+		}
+	}
+
+	private void put( String key, Object result, long ttl ) {
+		synchronized(this.entries) {
+			this.entries.put(key, new Cached(result, System.nanoTime() + ttl));
+		}
+	}
+
+	/**
+	 * Build the cache key: anything which can change the outcome of the job, with argument types spelled out
+	 * so that (for example) the number 1 and the string "1" do not collide.
+	 */
+	private static String key( Job job, String language ) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(language).append('\0');
+		if (job.isJsonResult()) sb.append("json:").append(job.getJsonDepth()).append(':').append(job.getJsonSize());
+		sb.append('\0');
+		if (job.getArgs()!=null) {
+			for (Object arg: job.getArgs()) {
+				if (arg==null) sb.append("null");
+				else sb.append(arg.getClass().getName()).append(':').append(arg);
+				sb.append('\0');
+			}
+		}
+		return sb.append('\0').append(job.getCode()).toString();
+	}
+
+	/**
+	 * @return Whether every argument is a value whose text identifies it: a string, boolean, boxed primitive number or null.
+	 */
+	private static boolean isKeyable( Object[] args ) {
+		if (args==null) return true;
+		for (Object arg: args) {
+			if (arg==null || arg instanceof String || arg instanceof Boolean) continue;
+			if (arg instanceof Double || arg instanceof Integer || arg instanceof Long || arg instanceof Float || arg instanceof Short || arg instanceof Byte) continue;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return Whether the result may be handed to several jobs at once: null, a string, boolean or boxed primitive number.
+	 */
+	private static boolean isImmutable( Object result ) {
+		if (result==null || result instanceof String || result instanceof Boolean) return true;
+		return result instanceof Double || result instanceof Integer || result instanceof Long || result instanceof Float || result instanceof Short || result instanceof Byte;
+	}
+
+	/**
+	 * @return A fresh, non-cacheable job with the same code, arguments and settings.
+	 */
+	private static Job copy( Job job ) {
+		Job copy = new Job(job.getLanguage(), job.getCode(), job.getArgs());
+		copy.setTimeout(job.getTimeout());
+		copy.setInstructionLimit(job.getInstructionLimit());
+		if (job.isJsonResult()) copy.setJsonResult(job.getJsonDepth(), job.getJsonSize());
+		copy.setLane(job.getLane());
+		copy.setCaller(job.getCaller());
+		copy.setVirtual(job.isVirtual());
+		return copy;
+	}
+
+	private static class Cached {
+		final Object result;
+		final long expires;
+
+		Cached( Object result, long expires ) {
+			this.result = result;
+			this.expires = expires;
+		}
+	}
+
+	/**
+	 * The jobs waiting on one shared execution. A job joining after the outcome is known is completed straight away,
+	 * unless the outcome could not be shared, in which case the job has to be evaluated on its own.
+	 */
+	private static class Flight {
+		private final List<Job> jobs = new ArrayList<Job>();
+		private boolean finished = false;
+		private boolean shareable;
+		private Object result;
+		private Exception exception;
+
+		/**
+		 * @return Whether the job was attached (or completed); false if it has to be evaluated on its own.
+		 */
+		boolean join( Job job ) {
+			synchronized(this) {
+				if (!this.finished) {
+					this.jobs.add(job);
+					return true;
+				}
+				if (!this.shareable) return false;
+			}
+			job.complete(this.result, this.exception);
+			return true;
+		}
+
+		/**
+		 * Complete the jobs waiting on the outcome - only the first of them if the result cannot be shared.
+		 * @return The other jobs, which are still waiting if the result cannot be shared.
+		 */
+		List<Job> finish( Object result, Exception exception, boolean shareable ) {
+			List<Job> jobs;
+			synchronized(this) {
+				this.result = result;
+				this.exception = exception;
+				this.shareable = shareable;
+				this.finished = true;
+				jobs = new ArrayList<Job>(this.jobs);
+				this.jobs.clear();
+			}
+			if (shareable) {
+				for (Job job: jobs) job.complete(result, exception);
+				return Collections.<Job>emptyList();
+			}
+			jobs.get(0).complete(result, exception);
+			return jobs.subList(1, jobs.size());
+		}
+	}
+
+}
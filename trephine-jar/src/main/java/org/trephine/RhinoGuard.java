@@ -0,0 +1,53 @@
+package org.trephine;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Global Rhino ContextFactory which lets the watchdog stop runaway JavaScript.
+ * Every context counts instructions (compiled scripts included) and reports back every THRESHOLD of them,
+ * at which point the script is aborted if its worker (or virtual thread) has been interrupted or the job's instruction budget is spent.
+ * Only referenced by name, via install(), so that trephine still loads where Rhino is absent.
+ */
+public class RhinoGuard extends ContextFactory {
+
+	private static final int THRESHOLD = 10000;
+
+	/**
+	 * Make this the global factory, unless someone else got there first.
+	 * @return Whether the guard is in place.
+	 */
+	public static boolean install() {
+		final String fname = "RhinoGuard:install()";
+		if (ContextFactory.hasExplicitGlobal()) {
+			Log.debug(fname, "global ContextFactory already set, instruction limits unavailable");
+			return false;
+		}
+		try {
+			ContextFactory.initGlobal(new RhinoGuard());
+		} catch (IllegalStateException e) {
+			Log.debug(fname, "lost race to set global ContextFactory");
+			return false;
+		}
+		return true;
+	}
+
+	protected Context makeContext() {
+		Context cx = super.makeContext();
+		cx.setGenerateObserverCount(true);
+		cx.setInstructionObserverThreshold(THRESHOLD);
+		return cx;
+	}
+
+	protected void observeInstructionCount( Context cx, int count ) {
+		Thread thread = Thread.currentThread();
+		Job job;
+		if (thread instanceof Executor) job = ((Executor) thread).getCurrentJob();
+		else if ((job = VirtualPool.getCurrentJob())==null) return;
+		if (thread.isInterrupted()) throw new ScriptAbortedError("Script was interrupted.");
+		if (job!=null && !job.consumeInstructions(count)) {
+			throw new ScriptAbortedError("Script exceeded its limit of " + job.getInstructionLimit() + " instructions.");
+		}
+	}
+
+}
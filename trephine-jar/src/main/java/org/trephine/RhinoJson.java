@@ -0,0 +1,77 @@
+package org.trephine;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.Undefined;
+import org.mozilla.javascript.Wrapper;
+
+/**
+ * Rhino-specific value conversion: the half of JsonWriter which walks native JavaScript objects and arrays,
+ * and the conversion of job arguments into a native array.
+ * Only loaded once Rhino is known to be in use, so Rhino stays optional.
+ */
+class RhinoJson {
+
+	// Standard objects the argument arrays take their prototype from, sealed since every worker shares them
+	private static Scriptable scope;
+
+	/**
+	 * Turn job arguments into a JavaScript array, so that strings, numbers and booleans reach the script
+	 * as primitives rather than wrapped Java objects. The array has Array.prototype, so args.join() and
+	 * the like work, though it comes from a scope of its own rather than the script's.
+	 */
+	static Object toArray( Object[] args ) {
+		Context cx = ContextFactory.getGlobal().enterContext();
+		try {
+			return cx.newArray(scope(cx), args.clone());
+		} finally {
+			Context.exit();
+		}
+	}
+
+	private static synchronized Scriptable scope( Context cx ) {
+		if (scope==null) scope = cx.initStandardObjects(null, true);
+		return scope;
+	}
+
+	static void write( JsonWriter writer, Object value, int depth ) {
+		if (value instanceof Undefined || value instanceof Function) {
+			writer.buffer().append("null");
+		} else if (value instanceof Wrapper) {
+			writer.value(((Wrapper) value).unwrap(), depth);
+		} else if (value instanceof NativeArray) {
+			NativeArray array = (NativeArray) value;
+			writer.enter(array, depth);
+			writer.buffer().append('[');
+			long length = array.getLength();
+			for (int i=0; i<length; i++) {
+				if (i>0) writer.buffer().append(',');
+				Object element = array.get(i, array);
+				writer.value(element==Scriptable.NOT_FOUND ? null : element, depth + 1);
+			}
+			writer.buffer().append(']');
+			writer.leave(array);
+		} else if (value instanceof Scriptable) {
+			Scriptable object = (Scriptable) value;
+			writer.enter(object, depth);
+			writer.buffer().append('{');
+			boolean first = true;
+			for (Object id: object.getIds()) {
+				Object property = id instanceof Number ? object.get(((Number) id).intValue(), object) : object.get(id.toString(), object);
+				if (property==Scriptable.NOT_FOUND || property instanceof Function || property instanceof Undefined) continue;
+				if (!first) writer.buffer().append(',');
+				first = false;
+				writer.property(id.toString(), property, depth);
+			}
+			writer.buffer().append('}');
+			writer.leave(object);
+		} else {
+			writer.value(value.toString(), depth);
+		}
+		writer.checkSize();
+	}
+
+}
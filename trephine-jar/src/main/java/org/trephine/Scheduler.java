@@ -0,0 +1,160 @@
+package org.trephine;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Orders the jobs queued for one executor. Producers hand jobs over through the executor's JobRing as before;
+ * the executor then drains the ring into two priority lanes - interactive and background - and within each lane
+ * takes jobs round-robin by caller (page or frame), so one busy caller cannot starve the others. Interactive jobs
+ * go first, but a waiting background job is still let through after every BACKGROUND_SHARE interactive ones.
+ * <p>
+ * Only the lane depths are shared between threads; the lanes themselves are touched by the consuming executor alone.
+ */
+public class Scheduler {
+
+	public static final int INTERACTIVE = 0;
+	public static final int BACKGROUND = 1;
+
+	private static final String[] LANE_NAMES = { "interactive", "background" };
+	private static final int BACKGROUND_SHARE = 8;
+
+	private final JobRing ring;
+	private final int capacity;
+	private final Lane[] lanes = { new Lane(), new Lane() };
+	private final AtomicInteger[] depths = { new AtomicInteger(), new AtomicInteger() };
+
+	private int held = 0;
+	private int streak = 0;
+	private boolean done = false;
+
+	/**
+	 * @param ring The ring producers publish into.
+	 * @param capacity Maximum number of jobs held in the lanes; beyond that they stay in the ring, so producers
+	 *        still feel back-pressure once it fills.
+	 */
+	public Scheduler( JobRing ring, int capacity ) {
+		this.ring = ring;
+		this.capacity = Math.max(1, capacity);
+	}
+
+	/**
+	 * Queue a job, waiting only if the ring is full.
+	 */
+	public void put( Job job ) {
+		if (job!=Job.DONE) this.depths[job.getLane()].incrementAndGet();
+		this.ring.put(job);
+	}
+
+	/**
+	 * Queue a job if the ring has a free slot; never blocks.
+	 * @return Whether the job was accepted.
+	 */
+	public boolean offer( Job job ) {
+		this.depths[job.getLane()].incrementAndGet();
+		if (this.ring.offer(job)) return true;
+		this.depths[job.getLane()].decrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Wait until a job is available, then return the next one due. Must only be called by the consumer.
+	 * Job.DONE is only returned once every job queued before it has been taken.
+	 */
+	public Job take() {
+		while (true) {
+			Job job;
+			while (this.held<this.capacity && (job = this.ring.poll())!=null) this.hold(job);
+			job = this.next();
+			if (job!=null) return job;
+			if (this.done) return Job.DONE;
+			this.hold(this.ring.take());
+		}
+	}
+
+	/**
+	 * @return Whether no jobs are waiting in either lane.
+	 */
+	public boolean isEmpty() {
+		return this.size()==0;
+	}
+
+	/**
+	 * @return Number of jobs waiting in both lanes (approximate while producers are active).
+	 */
+	public int size() {
+		return this.depths[INTERACTIVE].get() + this.depths[BACKGROUND].get();
+	}
+
+	/**
+	 * @return Number of jobs waiting in the given lane.
+	 */
+	public int size( int lane ) {
+		return this.depths[lane].get();
+	}
+
+	/**
+	 * @return Name of a lane, as used in options strings and statistics.
+	 */
+	public static String laneName( int lane ) {
+		return LANE_NAMES[lane];
+	}
+
+	private void hold( Job job ) {
+		if (job==Job.DONE) {
+			this.done = true;
+			return;
+		}
+		this.lanes[job.getLane()].add(job);
+		this.held++;
+	}
+
+	private Job next() {
+		Lane interactive = this.lanes[INTERACTIVE];
+		Lane background = this.lanes[BACKGROUND];
+		int lane;
+		if (background.size==0) lane = INTERACTIVE;
+		else if (interactive.size==0 || this.streak>=BACKGROUND_SHARE) lane = BACKGROUND;
+		else lane = INTERACTIVE;
+		Job job = this.lanes[lane].poll();
+		if (job==null) return null;
+		this.streak = lane==INTERACTIVE ? this.streak + 1 : 0;
+		this.held--;
+		this.depths[lane].decrementAndGet();
+		return job;
+	}
+
+	/**
+	 * One priority lane: a queue per caller, and the callers with waiting jobs in round-robin order.
+	 */
+	private static class Lane {
+		final Map<String,LinkedList<Job>> callers = new HashMap<String,LinkedList<Job>>();
+		final LinkedList<String> turns = new LinkedList<String>();
+		int size = 0;
+
+		void add( Job job ) {
+			LinkedList<Job> queue = this.callers.get(job.getCaller());
+			if (queue==null) {
+				queue = new LinkedList<Job>();
+				this.callers.put(job.getCaller(), queue);
+				this.turns.addLast(job.getCaller());
+			}
+			queue.addLast(job);
+			this.size++;
+		}
+
+		Job poll() {
+			if (this.size==0) return null;
+			String caller = this.turns.removeFirst();
+			LinkedList<Job> queue = this.callers.get(caller);
+			Job job = queue.removeFirst();
+			if (queue.isEmpty()) this.callers.remove(caller);
+			else this.turns.addLast(caller);
+			this.size--;
+			return job;
+		}
+	}
+
+}
@@ -0,0 +1,16 @@
+package org.trephine;
+
+/**
+ * Thrown from inside an engine (by RhinoGuard) to unwind a script which ran past its deadline,
+ * was cancelled, or used up its instruction budget.
+ * It is an Error rather than an Exception so that script-level try/catch blocks cannot swallow it.
+ */
+public class ScriptAbortedError extends Error {
+
+	private static final long serialVersionUID = 1L;
+
+	public ScriptAbortedError( String message ) {
+		super(message);
+	}
+
+}
@@ -0,0 +1,89 @@
+package org.trephine;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.script.CompiledScript;
+
+/**
+ * Bounded, least-recently-used cache of compiled scripts, keyed by canonical language name and code.
+ * Each Executor keeps its own cache, since a CompiledScript is bound to the engine which produced it.
+ */
+public class ScriptCache {
+
+	private final int capacity;
+	private final LinkedHashMap<Key,CompiledScript> scripts;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	public ScriptCache( int capacity ) {
+		this.capacity = capacity;
+		this.scripts = new LinkedHashMap<Key,CompiledScript>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key,CompiledScript> eldest) {
+				if (size() <= ScriptCache.this.capacity) return false;
+				ScriptCache.this.evictions++;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Look up a previously compiled script.
+	 * @param language Canonical language name.
+	 * @param code Source code of the script.
+	 * @return The compiled script, or null if it is not cached.
+	 */
+	public synchronized CompiledScript get( String language, String code ) {
+		CompiledScript script = this.scripts.get(new Key(language, code));
+		if (script==null) this.misses++;
+		else this.hits++;
+		return script;
+	}
+
+	/**
+	 * Remember a compiled script, evicting the least recently used entry if the cache is full.
+	 */
+	public synchronized void put( String language, String code, CompiledScript script ) {
+		if (this.capacity<=0) return;
+		this.scripts.put(new Key(language, code), script);
+	}
+
+	public synchronized boolean isEnabled() { return this.capacity>0; }
+	public synchronized int size() { return this.scripts.size(); }
+	public synchronized long getHits() { return this.hits; }
+	public synchronized long getMisses() { return this.misses; }
+	public synchronized long getEvictions() { return this.evictions; }
+
+	/**
+	 * Cache key; the hash is derived from the code's (cached) String hash, but equality compares the
+	 * full code so that colliding snippets can never be confused for one another.
+	 */
+	private static final class Key {
+		private final String language;
+		private final String code;
+		private final int hash;
+
+		Key( String language, String code ) {
+			this.language = language;
+			this.code = code;
+			this.hash = 31 * language.hashCode() + code.hashCode();
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hash;
+		}
+
+		@Override
+		public boolean equals( Object o ) {
+			if (!(o instanceof Key)) return false;
+			Key other = (Key) o;
+			return this.hash==other.hash && this.language.equals(other.language) && this.code.equals(other.code);
+		}
+	}
+
+}
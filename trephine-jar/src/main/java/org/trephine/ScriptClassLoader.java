@@ -0,0 +1,222 @@
+package org.trephine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Class loader for jars added by scripts at runtime (see Executor.addSystemJar).
+ * Each jar's directory is read once, when it is added, into a package-to-jar index; the jar is then kept open,
+ * so a class or resource lookup goes straight to the one or two jars which can hold it instead of scanning
+ * every jar in turn. The loader is parallel capable where the JVM supports it (Java 7 and later).
+ */
+public class ScriptClassLoader extends ClassLoader {
+
+	static {
+		try {
+			Method register = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+			register.setAccessible(true);
+			register.invoke(null);
+		} catch (Throwable t) {
+			Log.debug("ScriptClassLoader:static()", "not parallel capable on this JVM - {}", t.toString());
+		}
+	}
+
+	private static final Entry[] NONE = new Entry[0];
+
+	private final ConcurrentMap<String,Entry[]> index = new ConcurrentHashMap<String,Entry[]>();
+	private final List<Entry> jars = new CopyOnWriteArrayList<Entry>();
+
+	public ScriptClassLoader( ClassLoader parent ) {
+		super(parent);
+	}
+
+	/**
+	 * Add a jar, given as a File, URI, URL or string URL. Jars which are not local files are downloaded first.
+	 * @return Whether the jar was added (false if it had been added before).
+	 * @throws IOException If the jar cannot be fetched or read.
+	 */
+	public boolean addJar( Object uri ) throws IOException {
+		final String fname = "ScriptClassLoader:addJar()";
+		URL url = toURL(uri);
+		for (Entry entry: this.jars) {
+			if (entry.url.toString().equals(url.toString())) return false;
+		}
+		File file = "file".equals(url.getProtocol()) ? toFile(url) : download(url);
+		Entry entry = new Entry(url, new JarFile(file));
+		synchronized (this) {
+			Set<String> packages = new HashSet<String>();
+			for (Enumeration<JarEntry> e = entry.jar.entries(); e.hasMoreElements(); ) {
+				String name = e.nextElement().getName();
+				int slash = name.lastIndexOf('/');
+				packages.add(slash<0 ? "" : name.substring(0, slash));
+			}
+			for (String pkg: packages) {
+				Entry[] existing = this.index.get(pkg);
+				if (existing==null) existing = NONE;
+				Entry[] updated = new Entry[existing.length + 1];
+				System.arraycopy(existing, 0, updated, 0, existing.length);
+				updated[existing.length] = entry;
+				this.index.put(pkg, updated);
+			}
+			this.jars.add(entry);
+		}
+		Log.debug(fname, "indexed {} ({} entries)", url, entry.jar.size());
+		return true;
+	}
+
+	/**
+	 * @return The URLs of all added jars, in the order they were added.
+	 */
+	public List<URL> getJars() {
+		List<URL> urls = new ArrayList<URL>(this.jars.size());
+		for (Entry entry: this.jars) urls.add(entry.url);
+		return urls;
+	}
+
+	@Override
+	protected Class<?> findClass( String name ) throws ClassNotFoundException {
+		String path = name.replace('.', '/') + ".class";
+		for (Entry entry: this.candidates(path)) {
+			JarEntry jarEntry = entry.jar.getJarEntry(path);
+			if (jarEntry==null) continue;
+			try {
+				byte[] bytes = read(entry.jar.getInputStream(jarEntry));
+				this.definePackage(name);
+				return this.defineClass(name, bytes, 0, bytes.length, entry.domain);
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+		throw new ClassNotFoundException(name);
+	}
+
+	@Override
+	protected URL findResource( String name ) {
+		for (Entry entry: this.candidates(name)) {
+			if (entry.jar.getEntry(name)!=null) return entry.resource(name);
+		}
+		return null;
+	}
+
+	@Override
+	protected Enumeration<URL> findResources( String name ) {
+		List<URL> urls = new ArrayList<URL>();
+		for (Entry entry: this.candidates(name)) {
+			if (entry.jar.getEntry(name)!=null) urls.add(entry.resource(name));
+		}
+		return Collections.enumeration(urls);
+	}
+
+	/**
+	 * @return The jars which hold anything in the same directory as the given path.
+	 */
+	private Entry[] candidates( String path ) {
+		int slash = path.lastIndexOf('/');
+		Entry[] entries = this.index.get(slash<0 ? "" : path.substring(0, slash));
+		return entries==null ? NONE : entries;
+	}
+
+	private void definePackage( String className ) {
+		int dot = className.lastIndexOf('.');
+		if (dot<0) return;
+		try {
+			this.definePackage(className.substring(0, dot), null, null, null, null, null, null, null);
+		} catch (IllegalArgumentException e) {
+			// Already defined, by an earlier class of the package or concurrently by another thread
+		}
+	}
+
+	private static URL toURL( Object uri ) throws MalformedURLException {
+		if (uri instanceof File) return ((File) uri).toURI().toURL();
+		if (uri instanceof java.net.URI) return ((java.net.URI) uri).toURL();
+		if (uri instanceof URL) return (URL) uri;
+		return new URL(uri.toString());
+	}
+
+	/**
+	 * @return The local file a file: URL points to, with any escaped characters decoded.
+	 */
+	private static File toFile( URL url ) throws IOException {
+		try {
+			return new File(url.toURI());
+		} catch (URISyntaxException e) {
+			throw (IOException) new IOException("Not a valid file URL: " + url).initCause(e);
+		} catch (IllegalArgumentException e) {
+			throw (IOException) new IOException("Not a valid file URL: " + url).initCause(e);
+		}
+	}
+
+	private static File download( URL url ) throws IOException {
+		File file = File.createTempFile("trephine-", ".jar");
+		file.deleteOnExit();
+		InputStream in = url.openStream();
+		try {
+			OutputStream out = new FileOutputStream(file);
+			try {
+				byte[] buffer = new byte[8192];
+				for (int n; (n = in.read(buffer))>0; ) out.write(buffer, 0, n);
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+		return file;
+	}
+
+	private static byte[] read( InputStream in ) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			for (int n; (n = in.read(buffer))>0; ) out.write(buffer, 0, n);
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * An added jar: kept open, with the protection domain its classes are defined in.
+	 */
+	private class Entry {
+		final URL url;
+		final JarFile jar;
+		final ProtectionDomain domain;
+
+		Entry( URL url, JarFile jar ) {
+			this.url = url;
+			this.jar = jar;
+			this.domain = new ProtectionDomain(new CodeSource(url, (java.security.cert.Certificate[]) null), null, ScriptClassLoader.this, null);
+		}
+
+		URL resource( String name ) {
+			try {
+				return new URL("jar:" + this.url + "!/" + name);
+			} catch (MalformedURLException e) {
+				return null;
+			}
+		}
+	}
+
+}
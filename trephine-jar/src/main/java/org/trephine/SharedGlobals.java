@@ -0,0 +1,67 @@
+package org.trephine;
+
+import java.util.AbstractMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+
+/**
+ * Global scope of one script context: a view of the globals shared by every worker which never changes them.
+ * Engines such as Rhino assign a name in whichever scope already holds it, so writes and removals are sent to
+ * the context's engine scope instead - a script declaring or assigning a shared name (or the engine binding its
+ * own "print") shadows it for the rest of the job, and other workers still see the shared value.
+ */
+public class SharedGlobals extends AbstractMap<String,Object> implements Bindings {
+
+	private final Map<String,Object> shared;
+	private final ScriptContext context;
+
+	/**
+	 * @param shared The shared globals, which are only ever read.
+	 * @param context The context whose engine scope receives writes.
+	 */
+	public SharedGlobals( Map<String,Object> shared, ScriptContext context ) {
+		this.shared = shared;
+		this.context = context;
+	}
+
+	/**
+	 * @return A view of the same shared globals for another context.
+	 */
+	public SharedGlobals view( ScriptContext context ) {
+		return new SharedGlobals(this.shared, context);
+	}
+
+	@Override
+	public Object get( Object name ) {
+		return this.shared.get(name);
+	}
+
+	@Override
+	public boolean containsKey( Object name ) {
+		return this.shared.containsKey(name);
+	}
+
+	@Override
+	public int size() {
+		return this.shared.size();
+	}
+
+	@Override
+	public Set<Map.Entry<String,Object>> entrySet() {
+		return this.shared.entrySet();
+	}
+
+	@Override
+	public Object put( String name, Object value ) {
+		return this.context.getBindings(ScriptContext.ENGINE_SCOPE).put(name, value);
+	}
+
+	@Override
+	public Object remove( Object name ) {
+		return this.context.getBindings(ScriptContext.ENGINE_SCOPE).remove(name);
+	}
+
+}
@@ -0,0 +1,247 @@
+package org.trephine;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Non-blocking front end accepting exec requests from local clients over a loopback socket.
+ * One selector thread serves every connection; jobs run on the Standalone host's executors and their
+ * responses are written back as they complete, so slow jobs never hold up other clients.
+ * <p>
+ * Protocol (UTF-8, any number of requests per connection, responses possibly out of order):
+ * <pre>
+ * request:  &lt;id&gt; &lt;language&gt; &lt;length&gt;\n&lt;length bytes of code&gt;
+ * response: &lt;id&gt; OK|ERR &lt;length&gt;\n&lt;length bytes of result text or error&gt;
+ * </pre>
+ */
+public class SocketServer implements Runnable {
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int MAX_REQUEST = 16 * 1024 * 1024;
+	private static final int MAX_HEADER = 1024;
+
+	private final Standalone host;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final Queue<Connection> writable = new ConcurrentLinkedQueue<Connection>();
+
+	public SocketServer( Standalone host, int port ) throws IOException {
+		this.host = host;
+		this.selector = Selector.open();
+		this.server = ServerSocketChannel.open();
+		this.server.socket().bind(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), port));
+		this.server.configureBlocking(false);
+		this.server.register(this.selector, SelectionKey.OP_ACCEPT);
+	}
+
+	/**
+	 * @return The port actually bound (useful when constructed with port 0).
+	 */
+	public int getPort() {
+		return this.server.socket().getLocalPort();
+	}
+
+	/**
+	 * Serve connections until close() is called.
+	 */
+	public void run() {
+		final String fname = "SocketServer:run()";
+		Log.debug(fname, "START");
+		try {
+			while (this.selector.isOpen()) {
+				this.selector.select();
+				Connection pending;
+				while ((pending = this.writable.poll())!=null) {
+					if (pending.key.isValid()) pending.key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				}
+				Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					try {
+						if (!key.isValid()) continue;
+						if (key.isAcceptable()) this.accept();
+						if (key.isValid() && key.isReadable()) ((Connection) key.attachment()).read();
+						if (key.isValid() && key.isWritable()) ((Connection) key.attachment()).write();
+					} catch (IOException e) {
+						Log.debug(fname, "closing connection - {}", e.getMessage());
+						((Connection) key.attachment()).close();
+					}
+				}
+			}
+		} catch (ClosedSelectorException e) {
+			// closed from another thread
+		} catch (IOException e) {
+			Log.error(fname, "selector failed", e);
+		}
+		Log.debug(fname, "END");
+	}
+
+	/**
+	 * Stop accepting and close all connections.
+	 */
+	public void close() {
+		try {
+			this.server.close();
+			for (SelectionKey key: this.selector.keys()) key.channel().close();
+			this.selector.close();
+		} catch (IOException e) {
+			Log.warn("SocketServer:close()", "error closing server", e);
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel = this.server.accept();
+		if (channel==null) return;
+		channel.configureBlocking(false);
+		SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+		key.attach(new Connection(channel, key));
+	}
+
+	/**
+	 * Per-connection parsing and response state. Only the selector thread reads or writes the channel;
+	 * completed jobs hand their responses over through a concurrent queue.
+	 */
+	private class Connection implements JobListener {
+
+		private final SocketChannel channel;
+		private final SelectionKey key;
+		private final Queue<ByteBuffer> responses = new ConcurrentLinkedQueue<ByteBuffer>();
+		private final LinkedList<ByteBuffer> unsent = new LinkedList<ByteBuffer>();
+		private final Map<Job,String> ids = new ConcurrentHashMap<Job,String>();
+
+		private ByteBuffer in = ByteBuffer.allocate(4096);
+		private String header = null;
+
+		Connection( SocketChannel channel, SelectionKey key ) {
+			this.channel = channel;
+			this.key = key;
+		}
+
+		void read() throws IOException {
+			if (!this.in.hasRemaining()) this.grow(this.in.capacity() * 2);
+			int n = this.channel.read(this.in);
+			if (n<0) {
+				this.close();
+				return;
+			}
+			this.in.flip();
+			while (this.parse()) { }
+			this.in.compact();
+		}
+
+		/**
+		 * Try to parse one complete request from the input buffer (in read mode).
+		 * @return Whether a request was consumed.
+		 */
+		private boolean parse() throws IOException {
+			if (this.header==null) {
+				int end = -1;
+				for (int i=this.in.position(); i<this.in.limit(); i++) {
+					if (this.in.get(i)=='\n') { end = i; break; }
+				}
+				if (end<0) {
+					if (this.in.remaining() > MAX_HEADER) throw new IOException("request header too long");
+					return false;
+				}
+				byte[] bytes = new byte[end - this.in.position()];
+				this.in.get(bytes);
+				this.in.get();
+				this.header = new String(bytes, "UTF-8").trim();
+			}
+			String[] parts = this.header.split(" ");
+			if (parts.length!=3) throw new IOException("malformed request header: " + this.header);
+			int length;
+			try {
+				length = Integer.parseInt(parts[2]);
+			} catch (NumberFormatException e) {
+				throw new IOException("malformed request length: " + parts[2]);
+			}
+			if (length<0 || length>MAX_REQUEST) throw new IOException("request too large: " + length);
+			if (this.in.remaining() < length) {
+				if (this.in.capacity() < length + MAX_HEADER) {
+					this.in.compact();
+					this.grow(length + MAX_HEADER);
+					this.in.flip();
+				}
+				return false;
+			}
+			byte[] code = new byte[length];
+			this.in.get(code);
+			this.header = null;
+			Job job = new Job(parts[1], new String(code, "UTF-8"));
+			this.ids.put(job, parts[0]);
+			job.setListener(this);
+			host.submit(job);
+			return true;
+		}
+
+		/**
+		 * Replace the input buffer with a larger one (buffer must be in write mode).
+		 */
+		private void grow( int capacity ) {
+			ByteBuffer bigger = ByteBuffer.allocate(capacity);
+			this.in.flip();
+			bigger.put(this.in);
+			this.in = bigger;
+		}
+
+		public void jobFinished( Job job ) {
+			String id = this.ids.remove(job);
+			String status, body;
+			if (job.getException()==null) {
+				status = "OK";
+				body = String.valueOf(job.getResult());
+			} else {
+				status = "ERR";
+				StringWriter trace = new StringWriter();
+				job.getException().printStackTrace(new PrintWriter(trace));
+				body = trace.toString();
+			}
+			byte[] payload = body.getBytes(UTF8);
+			byte[] head = (id + " " + status + " " + payload.length + "\n").getBytes(UTF8);
+			ByteBuffer response = ByteBuffer.allocate(head.length + payload.length);
+			response.put(head).put(payload).flip();
+			this.responses.add(response);
+			writable.add(this);
+			selector.wakeup();
+		}
+
+		void write() throws IOException {
+			ByteBuffer buf;
+			while ((buf = this.responses.poll())!=null) this.unsent.addLast(buf);
+			while (!this.unsent.isEmpty()) {
+				buf = this.unsent.getFirst();
+				this.channel.write(buf);
+				if (buf.hasRemaining()) return;
+				this.unsent.removeFirst();
+			}
+			if (this.responses.isEmpty()) this.key.interestOps(SelectionKey.OP_READ);
+		}
+
+		void close() {
+			this.key.cancel();
+			try {
+				this.channel.close();
+			} catch (IOException e) { }
+		}
+
+	}
+
+}
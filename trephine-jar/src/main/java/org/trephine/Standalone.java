@@ -0,0 +1,189 @@
+package org.trephine;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+
+/**
+ * Headless host which runs the Dispatcher/Executor/Job pipeline in a plain JVM, without a browser or applet.
+ * Usage: java -cp trephine.jar:js.jar:js-engine.jar org.trephine.Standalone [port] [workers]
+ * <p>
+ * With a port, a SocketServer accepts exec requests on the loopback interface. Note that anyone able to
+ * connect to that port can run arbitrary code with the privileges of this JVM.
+ */
+public class Standalone implements Host {
+
+	public static final int DEFAULT_PORT = 7373;
+
+	private final HashMap<String,Object> environment = new HashMap<String,Object>();
+	private final Dispatcher dispatcher;
+	private final List<String> engines = new ArrayList<String>();
+	private final List<File> moduleDirectories = new ArrayList<File>();
+	private ModuleLoader modules;
+
+	private volatile boolean destroyed = false;
+
+	/**
+	 * @param workers Number of executor threads.
+	 * @param scriptCacheSize Number of compiled scripts each executor keeps.
+	 */
+	public Standalone( int workers, int scriptCacheSize ) {
+		this.dispatcher = new Dispatcher(this, workers, scriptCacheSize, this.environment);
+	}
+
+	/**
+	 * Start the workers and set up the shared script environment.
+	 */
+	public void start() {
+		final String fname = "Standalone:start()";
+		Log.debug(fname, "START");
+		this.dispatcher.start();
+		
+		Dispatcher.installScriptGuards();
+		ScriptEngineManager manager = new ScriptEngineManager(Executor.classLoader(this.environment));
+		ScriptEngine engine = manager.getEngineByName("js");
+		if (engine==null) throw new IllegalStateException("No JavaScript engine available, check the classpath.");
+		ScriptContext context = engine.getContext();
+		context.setAttribute("com.sun.script.jython.comp.mode", "eval", ScriptContext.ENGINE_SCOPE);
+		engine.put("host", this);
+		engine.put("context", context);
+		engine.put("engine", engine);
+		engine.put("manager", manager);
+		this.modules = new ModuleLoader(this.environment, manager);
+		for (File directory: this.moduleDirectories) this.modules.addDirectory(directory);
+		try {
+			this.modules.install(engine);
+		} catch (ScriptException e) {
+			throw new IllegalStateException("Unable to install the module loader.", e);
+		}
+		
+		synchronized (this.environment) {
+			this.environment.put("context",context);
+			this.environment.put("engine",engine);
+			this.environment.put("manager",manager);
+			this.environment.put("initialized",true);
+			this.environment.notifyAll();
+		}
+		this.dispatcher.preload(manager, context, this.engines, new HashMap<String,String>());
+		Log.debug(fname, "END");
+	}
+
+	/**
+	 * Queue a job for execution; the caller may wait on it or register a listener.
+	 * Never blocks: when the queue is full, the overload policy applies (see Dispatcher.offer()).
+	 * @return The same job.
+	 */
+	public Job submit( Job job ) {
+		this.dispatcher.offer(job);
+		return job;
+	}
+
+	/**
+	 * Execute code and wait for the outcome.
+	 * @return Results tuple, as returned by Launcher.exec().
+	 */
+	public Object exec( String language, String code ) {
+		return this.exec(language, code, null);
+	}
+
+	/**
+	 * Execute code with per-job options (see JobOptions) and wait for the outcome.
+	 */
+	public Object exec( String language, String code, String options ) {
+		Job job = JobOptions.parse(options).applyTo(new Job(language, code));
+		// This thread waits for the job regardless, so the job may be run at once for it when the queue is full
+		this.dispatcher.offer(job, true);
+		// Only returns unfinished if this thread was interrupted, in which case nobody wants the outcome
+		while (!job.await(0)) job.cancel();
+		if (job.isJsonResult()) return Launcher.jsonWrap((String) job.getResult(), job.getException());
+		return Launcher.listWrap(job.getResult(), job.getException());
+	}
+
+	/**
+	 * @param timeout Deadline in milliseconds for jobs which do not set their own, or zero for none.
+	 */
+	public void setDefaultTimeout( long timeout ) {
+		this.dispatcher.setDefaultTimeout(timeout);
+	}
+
+	/**
+	 * @param limit Number of waiting jobs beyond which the overload policy applies.
+	 * @param overload What to do with jobs arriving while the queue is full.
+	 */
+	public void setAdmission( int limit, Dispatcher.Overload overload ) {
+		this.dispatcher.setQueueLimit(limit);
+		this.dispatcher.setOverload(overload);
+	}
+
+	/**
+	 * @param languages Languages whose jobs all run on virtual threads, where the JVM has them.
+	 */
+	public void setVirtualLanguages( List<String> languages ) {
+		this.dispatcher.setVirtualLanguages(languages);
+	}
+
+	/**
+	 * Search a directory for modules loaded with require(name), after any added before. Must be called before start().
+	 */
+	public void addModuleDirectory( File directory ) {
+		this.moduleDirectories.add(directory);
+	}
+
+	/**
+	 * @return The module loader shared by all workers, for registering modules by name; null until started.
+	 */
+	public ModuleLoader getModules() {
+		return this.modules;
+	}
+
+	public Stats getStats() {
+		return this.dispatcher.getStats();
+	}
+
+	/**
+	 * Stop all workers.
+	 */
+	public void destroy() {
+		this.destroyed = true;
+		synchronized (this.environment) {
+			this.environment.notifyAll();
+		}
+		this.dispatcher.shutdown();
+	}
+
+	public boolean isPrivileged() { return true; }
+	public boolean isDestroyed() { return destroyed; }
+
+	public static void main( String[] args ) throws IOException {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+		int workers = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		if ("true".equals(System.getProperty("trephine.debug"))) Launcher.enableDebug();
+		
+		final Standalone host = new Standalone(workers, 128);
+		host.setDefaultTimeout(Long.getLong("trephine.timeout", 0L));
+		host.setAdmission(Integer.getInteger("trephine.queue.limit", 512), Dispatcher.Overload.parse(System.getProperty("trephine.overload")));
+		host.setVirtualLanguages(Arrays.asList(System.getProperty("trephine.virtual", "").split(",")));
+		for (String directory: System.getProperty("trephine.modules.path", "").split(",")) {
+			if (directory.trim().length()>0) host.addModuleDirectory(new File(directory.trim()));
+		}
+		host.start();
+		final SocketServer server = new SocketServer(host, port);
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				server.close();
+				host.destroy();
+			}
+		});
+		System.out.println("trephine " + Launcher.getVersion() + " listening on 127.0.0.1:" + server.getPort() + " with " + workers + " worker(s)");
+		server.run();
+	}
+
+}
@@ -0,0 +1,236 @@
+package org.trephine;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Execution statistics for one Dispatcher: per-language latency histograms for each stage of a job
+ * (queueing, engine procurement, evaluation and end-to-end), throughput, queue depth and wait per scheduling lane,
+ * and engine creations.
+ * Recording is lock-free, so executors can report every job without contending with each other.
+ */
+public class Stats implements StatsMBean {
+
+	private static final AtomicLong instances = new AtomicLong();
+
+	private final Dispatcher dispatcher;
+	private final long startTime = System.currentTimeMillis();
+	private final ConcurrentMap<String,LanguageStats> languages = new ConcurrentHashMap<String,LanguageStats>();
+	private final AtomicLong completed = new AtomicLong();
+	private final AtomicLong failed = new AtomicLong();
+	private final AtomicLong enginesCreated = new AtomicLong();
+	private final AtomicLong engineNanos = new AtomicLong();
+	private final AtomicLong timedOut = new AtomicLong();
+	private final AtomicLong retired = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong shared = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong dropped = new AtomicLong();
+	private final AtomicLong callerRuns = new AtomicLong();
+	private final Histogram[] laneWaits = { new Histogram(), new Histogram() };
+
+	private ObjectName name;
+
+	public Stats( Dispatcher dispatcher ) {
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Account for a finished job, using the timestamps it collected along the way.
+	 */
+	public void record( Job job ) {
+		String language = job.getLanguage()==null ? "" : job.getLanguage().trim().toLowerCase();
+		LanguageStats stats = this.languages.get(language);
+		if (stats==null) {
+			LanguageStats created = new LanguageStats();
+			stats = this.languages.putIfAbsent(language, created);
+			if (stats==null) stats = created;
+		}
+		stats.wait.record(job.getDequeueTime() - job.getSubmitTime());
+		this.laneWaits[job.getLane()].record(job.getDequeueTime() - job.getSubmitTime());
+		stats.engine.record(job.getEvalStartTime() - job.getDequeueTime());
+		stats.eval.record(job.getFinishTime() - job.getEvalStartTime());
+		stats.total.record(job.getFinishTime() - job.getSubmitTime());
+		if (job.getSuccess()) {
+			stats.completed.incrementAndGet();
+			this.completed.incrementAndGet();
+		} else {
+			stats.failed.incrementAndGet();
+			this.failed.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Account for a newly created engine instance.
+	 * @param nanos Time taken to create it.
+	 */
+	public void recordEngineCreation( long nanos ) {
+		this.enginesCreated.incrementAndGet();
+		this.engineNanos.addAndGet(nanos);
+	}
+
+	/**
+	 * Account for a job which the watchdog completed because it ran past its deadline.
+	 */
+	public void recordTimeout() {
+		this.timedOut.incrementAndGet();
+	}
+
+	/**
+	 * Account for a stuck worker which was retired and replaced.
+	 */
+	public void recordRetirement() {
+		this.retired.incrementAndGet();
+	}
+
+	/**
+	 * Account for a cacheable job answered from the ResultCache without being evaluated.
+	 */
+	public void recordCacheHit() {
+		this.cacheHits.incrementAndGet();
+	}
+
+	/**
+	 * Account for a cacheable job which shared the execution of an identical one already in flight.
+	 */
+	public void recordSharedExecution() {
+		this.shared.incrementAndGet();
+	}
+
+	/**
+	 * Account for a job turned away with a BusyException because the queue was full.
+	 */
+	public void recordRejection() {
+		this.rejected.incrementAndGet();
+	}
+
+	/**
+	 * Account for a waiting background job dropped to make room for a newer one.
+	 */
+	public void recordDrop() {
+		this.dropped.incrementAndGet();
+	}
+
+	/**
+	 * Account for a job run at once for its waiting caller because the queue was full.
+	 */
+	public void recordCallerRun() {
+		this.callerRuns.incrementAndGet();
+	}
+
+	public long getJobsCompleted() { return this.completed.get(); }
+	public long getJobsFailed() { return this.failed.get(); }
+	public int getQueueDepth() { return this.dispatcher.getQueueDepth(); }
+	public int getInteractiveQueueDepth() { return this.dispatcher.getQueueDepth(Scheduler.INTERACTIVE); }
+	public int getBackgroundQueueDepth() { return this.dispatcher.getQueueDepth(Scheduler.BACKGROUND); }
+	public long getEnginesCreated() { return this.enginesCreated.get(); }
+	public long getEngineCreationMillis() { return this.engineNanos.get() / 1000000; }
+	public long getJobsTimedOut() { return this.timedOut.get(); }
+	public long getWorkersRetired() { return this.retired.get(); }
+	public long getCacheHits() { return this.cacheHits.get(); }
+	public long getSharedExecutions() { return this.shared.get(); }
+	public long getJobsRejected() { return this.rejected.get(); }
+	public long getJobsDropped() { return this.dropped.get(); }
+	public long getCallerRuns() { return this.callerRuns.get(); }
+
+	/**
+	 * @return Jobs finished per second since these statistics were started.
+	 */
+	public double getThroughput() {
+		return rate(this.completed.get() + this.failed.get());
+	}
+
+	/**
+	 * @return All statistics as a JSON object string; latencies are in microseconds.
+	 */
+	public String getSummary() {
+		StringBuilder sb = new StringBuilder("{");
+		sb.append("\"uptime\":").append(System.currentTimeMillis() - this.startTime);
+		sb.append(",\"completed\":").append(this.getJobsCompleted());
+		sb.append(",\"failed\":").append(this.getJobsFailed());
+		sb.append(",\"throughput\":").append(this.getThroughput());
+		sb.append(",\"timedOut\":").append(this.getJobsTimedOut());
+		sb.append(",\"retired\":").append(this.getWorkersRetired());
+		sb.append(",\"queueDepth\":").append(this.getQueueDepth());
+		sb.append(",\"admission\":{\"limit\":").append(this.dispatcher.getQueueLimit())
+			.append(",\"policy\":\"").append(this.dispatcher.getOverload()).append('"')
+			.append(",\"rejected\":").append(this.getJobsRejected())
+			.append(",\"dropped\":").append(this.getJobsDropped())
+			.append(",\"callerRuns\":").append(this.getCallerRuns()).append('}');
+		sb.append(",\"cache\":{\"hits\":").append(this.getCacheHits())
+			.append(",\"shared\":").append(this.getSharedExecutions()).append('}');
+		sb.append(",\"engines\":{\"created\":").append(this.getEnginesCreated())
+			.append(",\"millis\":").append(this.getEngineCreationMillis()).append('}');
+		sb.append(",\"lanes\":{");
+		for (int lane=0; lane<this.laneWaits.length; lane++) {
+			if (lane>0) sb.append(',');
+			sb.append('"').append(Scheduler.laneName(lane)).append("\":{");
+			sb.append("\"depth\":").append(this.dispatcher.getQueueDepth(lane));
+			sb.append(",\"wait\":").append(this.laneWaits[lane].toJSON());
+			sb.append('}');
+		}
+		sb.append('}');
+		sb.append(",\"languages\":{");
+		boolean first = true;
+		for (Map.Entry<String,LanguageStats> entry: this.languages.entrySet()) {
+			if (!first) sb.append(',');
+			first = false;
+			LanguageStats stats = entry.getValue();
+			sb.append('"').append(entry.getKey().replace("\\", "\\\\").replace("\"", "\\\"")).append("\":{");
+			sb.append("\"completed\":").append(stats.completed.get());
+			sb.append(",\"failed\":").append(stats.failed.get());
+			sb.append(",\"throughput\":").append(rate(stats.completed.get() + stats.failed.get()));
+			sb.append(",\"wait\":").append(stats.wait.toJSON());
+			sb.append(",\"engine\":").append(stats.engine.toJSON());
+			sb.append(",\"eval\":").append(stats.eval.toJSON());
+			sb.append(",\"total\":").append(stats.total.toJSON());
+			sb.append('}');
+		}
+		return sb.append("}}").toString();
+	}
+
+	/**
+	 * Expose these statistics through JMX. Failure (for example in a sandbox) is logged and otherwise ignored.
+	 */
+	public void register() {
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			this.name = new ObjectName("org.trephine:type=Stats,id=" + instances.incrementAndGet());
+			server.registerMBean(this, this.name);
+		} catch (Throwable t) {
+			Log.debug("Stats:register()", "unable to register MBean - {}", t.toString());
+			this.name = null;
+		}
+	}
+
+	public void unregister() {
+		if (this.name==null) return;
+		try {
+			ManagementFactory.getPlatformMBeanServer().unregisterMBean(this.name);
+		} catch (Throwable t) {
+			Log.debug("Stats:unregister()", "unable to unregister MBean - {}", t.toString());
+		}
+		this.name = null;
+	}
+
+	private double rate( long count ) {
+		long elapsed = System.currentTimeMillis() - this.startTime;
+		return elapsed<=0 ? 0 : count * 1000.0 / elapsed;
+	}
+
+	private static class LanguageStats {
+		final AtomicLong completed = new AtomicLong();
+		final AtomicLong failed = new AtomicLong();
+		final Histogram wait = new Histogram();
+		final Histogram engine = new Histogram();
+		final Histogram eval = new Histogram();
+		final Histogram total = new Histogram();
+	}
+
+}
@@ -0,0 +1,23 @@
+package org.trephine;
+
+/**
+ * Management interface for Stats, registered with the platform MBean server as org.trephine:type=Stats.
+ */
+public interface StatsMBean {
+	public long getJobsCompleted();
+	public long getJobsFailed();
+	public long getJobsTimedOut();
+	public long getWorkersRetired();
+	public long getCacheHits();
+	public long getSharedExecutions();
+	public long getJobsRejected();
+	public long getJobsDropped();
+	public long getCallerRuns();
+	public double getThroughput();
+	public int getQueueDepth();
+	public int getInteractiveQueueDepth();
+	public int getBackgroundQueueDepth();
+	public long getEnginesCreated();
+	public long getEngineCreationMillis();
+	public String getSummary();
+}
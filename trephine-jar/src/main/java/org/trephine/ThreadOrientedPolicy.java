@@ -0,0 +1,113 @@
+package org.trephine;
+
+import java.security.AllPermission;
+import java.security.CodeSource;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+import java.security.Policy;
+import java.security.ProtectionDomain;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Alternative policy which evaluates code permissions based on the ThreadGroup hierarchy:
+ * code running on threads whose group is the applet's thread group or one of its ancestors gets AllPermission,
+ * and everything else (including threads in groups below the applet's) is deferred to the parent (browser) policy.
+ * <p>
+ * This sits on the path of every security check a script triggers, so decisions are cheap and thread-safe:
+ * whether a thread is privileged is worked out once per thread, the extended collection for a domain is built
+ * once and cached (weakly, so domains can still be unloaded), and a per-thread guard stops the parent policy's
+ * own security checks from recursing back in here.
+ */
+public class ThreadOrientedPolicy extends Policy {
+
+	final private Policy parentPolicy;
+	final private Host host;
+	final private ThreadGroup group;
+
+	final private Map<ProtectionDomain,PermissionCollection> extended =
+		Collections.synchronizedMap(new WeakHashMap<ProtectionDomain,PermissionCollection>());
+
+	final private ThreadLocal<Boolean> privileged = new ThreadLocal<Boolean>();
+	final private ThreadLocal<Boolean> inCheck = new ThreadLocal<Boolean>();
+
+	/**
+	 * @param policy The policy to defer to for unprivileged threads.
+	 * @param host Privileges are withdrawn once the host is destroyed.
+	 * @param group Threads whose group is this one or an ancestor of it are privileged.
+	 */
+	ThreadOrientedPolicy(Policy policy, Host host, ThreadGroup group) {
+		this.parentPolicy = policy;
+		this.host = host;
+		this.group = group;
+		Log.debug("ThreadOrientedPolicy:constructor()", "initialized with parent {}", this.parentPolicy);
+	}
+
+	/**
+	 * Decided here rather than by Policy's own per-domain cache, which would remember one thread's answer for all threads.
+	 */
+	@Override
+	public boolean implies(ProtectionDomain domain, Permission permission) {
+		if (this.isPrivileged()) return true;
+		return this.parentPolicy.implies(domain, permission);
+	}
+
+	@Override
+	public PermissionCollection getPermissions(CodeSource codesource) {
+		PermissionCollection permissions = this.parentPolicy.getPermissions(codesource);
+		return this.isPrivileged() ? extend(permissions) : permissions;
+	}
+
+	@Override
+	public PermissionCollection getPermissions(ProtectionDomain domain) {
+		if (!this.isPrivileged()) return this.parentPolicy.getPermissions(domain);
+		PermissionCollection permissions = this.extended.get(domain);
+		if (permissions==null) {
+			permissions = extend(this.parentPolicy.getPermissions(domain));
+			this.extended.put(domain, permissions);
+		}
+		return permissions;
+	}
+
+	@Override
+	public void refresh() {
+		this.extended.clear();
+		this.parentPolicy.refresh();
+	}
+
+	/**
+	 * @return Whether the current thread gets AllPermission. Checks made while deciding are never privileged.
+	 */
+	private boolean isPrivileged() {
+		if (this.host.isDestroyed()) return false;
+		Boolean privileged = this.privileged.get();
+		if (privileged==null) {
+			if (this.inCheck.get()!=null) return false;
+			this.inCheck.set(Boolean.TRUE);
+			try {
+				privileged = Thread.currentThread().getThreadGroup().parentOf(this.group);
+				this.privileged.set(privileged);
+			} finally {
+				this.inCheck.remove();
+			}
+		}
+		return privileged;
+	}
+
+	/**
+	 * @return A read-only copy of the collection with AllPermission added, leaving the parent's own collection untouched.
+	 */
+	private static PermissionCollection extend(PermissionCollection permissions) {
+		Permissions copy = new Permissions();
+		if (permissions!=null) {
+			for (Enumeration<Permission> e = permissions.elements(); e.hasMoreElements(); ) copy.add(e.nextElement());
+		}
+		copy.add(new AllPermission());
+		copy.setReadOnly();
+		return copy;
+	}
+
+}
@@ -0,0 +1,275 @@
+package org.trephine;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeoutException;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import javax.script.ScriptException;
+import javax.script.SimpleScriptContext;
+
+/**
+ * Runs jobs on virtual threads (Java 21 and later), for scripts which spend most of their time blocked on I/O.
+ * Each job gets its own thread and borrows an engine instance from a per-language pool for as long as it runs,
+ * so hundreds of blocking jobs can be in flight without tying up the executors or an OS thread apiece.
+ * Virtual threads are looked up by reflection; where they are unavailable, isSupported() is false and the
+ * Dispatcher queues such jobs with the executors as usual.
+ * <p>
+ * Deadlines and cancellation work as for executors: the Dispatcher's watchdog calls check(), which times out
+ * overdue jobs and interrupts the threads of jobs finished on their behalf. There is nothing to retire, since
+ * a stuck virtual thread holds no worker.
+ */
+public class VirtualPool {
+
+	private static final ThreadLocal<Job> current = new ThreadLocal<Job>();
+
+	private final ThreadFactory threads;
+	private final Map<String,Object> environment;
+	private final List<ScriptEngineFactory> factories;
+	private final BindingsPool scopes;
+	private final Stats stats;
+	private final int scriptCacheSize;
+	private final int idleEngines;
+
+	private final ConcurrentMap<String,ConcurrentLinkedQueue<Slot>> engines = new ConcurrentHashMap<String,ConcurrentLinkedQueue<Slot>>();
+	private final ConcurrentMap<Job,Thread> running = new ConcurrentHashMap<Job,Thread>();
+
+	/**
+	 * @param idleEngines Maximum number of idle engine instances kept per language.
+	 */
+	public VirtualPool( Map<String,Object> environment, List<ScriptEngineFactory> factories, BindingsPool scopes, Stats stats, int scriptCacheSize, int idleEngines ) {
+		this.threads = virtualThreadFactory();
+		this.environment = environment;
+		this.factories = factories;
+		this.scopes = scopes;
+		this.stats = stats;
+		this.scriptCacheSize = scriptCacheSize;
+		this.idleEngines = idleEngines;
+	}
+
+	/**
+	 * @return Whether this JVM has virtual threads.
+	 */
+	public boolean isSupported() {
+		return this.threads!=null;
+	}
+
+	/**
+	 * @return The job being evaluated on the calling virtual thread, or null (see RhinoGuard).
+	 */
+	static Job getCurrentJob() {
+		return current.get();
+	}
+
+	/**
+	 * @return Number of jobs currently running on virtual threads.
+	 */
+	public int getRunning() {
+		return this.running.size();
+	}
+
+	/**
+	 * Run a job with a pooled engine, as for a virtual thread, but on a platform thread started in the given
+	 * group (used when the Dispatcher is overloaded and configured to let callers run their own jobs). The caller
+	 * waits for the job anyway; keeping the work off its thread means the job gets the same permissions as on a
+	 * worker, whichever thread submitted it.
+	 * @param group Thread group of the workers.
+	 */
+	void runBeside( final Job job, ThreadGroup group ) {
+		Thread thread = new Thread(group, new Runnable() {
+			public void run() {
+				execute(job);
+			}
+		}, "trephine-caller-runs-" + job.getId());
+		thread.setDaemon(true);
+		thread.setContextClassLoader(Executor.classLoader(this.environment));
+		thread.start();
+	}
+
+	/**
+	 * Start a job on a new virtual thread. The job must already have been marked as submitted.
+	 */
+	public void submit( final Job job ) {
+		Thread thread = this.threads.newThread(new Runnable() {
+			public void run() {
+				execute(job);
+			}
+		});
+		thread.setContextClassLoader(Executor.classLoader(this.environment));
+		thread.start();
+	}
+
+	/**
+	 * Time out overdue jobs, and interrupt the threads of jobs which have finished (timed out or cancelled) but
+	 * are still being evaluated. Called periodically by the watchdog.
+	 */
+	void check( long now ) {
+		for (Map.Entry<Job,Thread> entry: this.running.entrySet()) {
+			Job job = entry.getKey();
+			if (!job.isFinished()) {
+				if (!job.isOverdue(now)) continue;
+				String message = "Job " + job.getId() + " exceeded its deadline of " + job.getTimeout() + "ms.";
+				if (job.complete(null, new TimeoutException(message))) this.stats.recordTimeout();
+			}
+			synchronized(this) {
+				if (this.running.remove(job, entry.getValue())) entry.getValue().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @return False if the watchdog took the job out of the running set (and so interrupted this thread).
+	 */
+	private boolean execute( Job job ) {
+		final String fname = "VirtualPool:execute()";
+		if (job.expire(System.nanoTime())) {
+			Log.debug(fname, "skipping overdue Job");
+			this.stats.recordTimeout();
+			return true;
+		}
+		if (!job.start()) {
+			Log.debug(fname, "skipping cancelled Job");
+			return true;
+		}
+		boolean removed;
+		job.markDequeued();
+		this.running.put(job, Thread.currentThread());
+		current.set(job);
+		Slot slot = null;
+		ScriptContext context = new SimpleScriptContext();
+		context.setBindings(this.scopes.acquire(), ScriptContext.ENGINE_SCOPE);
+		try {
+			slot = this.borrow(job.getLanguage());
+			if (slot==null) throw new RuntimeException("Unable to procure script engine for language " + job.getLanguage());
+			this.bindGlobals(context);
+			Executor.captureOutput(context, job);
+			Executor.checkGuards(slot.engine, job);
+			job.markEvalStart();
+			if (job.getArgs()!=null) Executor.bindArguments(slot.engine, context, job.getArgs());
+			Object result = slot.eval(job.getCode(), context);
+			if (job.isJsonResult()) result = JsonWriter.write(result, job.getJsonDepth(), job.getJsonSize());
+			job.complete(result, null);
+		} catch (Exception e) {
+			Log.debug(fname, "error evaluating code", e);
+			if (job.getEvalStartTime()==0) job.markEvalStart();
+			job.complete(null, e);
+		} catch (ScriptAbortedError e) {
+			Log.debug(fname, "evaluation aborted - {}", e.getMessage());
+			if (job.getEvalStartTime()==0) job.markEvalStart();
+			job.complete(null, new ScriptException(e.getMessage()));
+		} finally {
+			current.remove();
+			synchronized(this) {
+				removed = this.running.remove(job)!=null;
+			}
+			if (slot!=null) this.release(slot);
+			this.scopes.release(context.getBindings(ScriptContext.ENGINE_SCOPE));
+		}
+		this.stats.record(job);
+		return removed;
+	}
+
+	private void bindGlobals( ScriptContext target ) {
+		ScriptContext context;
+		synchronized(this.environment) {
+			context = (ScriptContext) this.environment.get("context");
+		}
+		if (context!=null) Executor.bindGlobals(target, this.environment, context);
+	}
+
+	/**
+	 * Take an idle engine for the language, creating one if none is free.
+	 */
+	private Slot borrow( String language ) {
+		String name = language==null ? "" : language.trim();
+		ConcurrentLinkedQueue<Slot> idle = this.engines.get(name);
+		Slot slot = idle==null ? null : idle.poll();
+		if (slot!=null) return slot;
+		ScriptEngine engine = this.createEngine(name);
+		return engine==null ? null : new Slot(name, engine, new ScriptCache(this.scriptCacheSize));
+	}
+
+	private void release( Slot slot ) {
+		ConcurrentLinkedQueue<Slot> idle = this.engines.get(slot.language);
+		if (idle==null) {
+			ConcurrentLinkedQueue<Slot> created = new ConcurrentLinkedQueue<Slot>();
+			idle = this.engines.putIfAbsent(slot.language, created);
+			if (idle==null) idle = created;
+		}
+		// Size is linear on this queue, but idle lists stay short
+		if (idle.size()<this.idleEngines) idle.offer(slot);
+	}
+
+	private ScriptEngine createEngine( String name ) {
+		long start = System.nanoTime();
+		ScriptEngineManager manager;
+		synchronized(this.environment) {
+			manager = (ScriptEngineManager) this.environment.get("manager");
+		}
+		if (manager==null) return null;
+		ScriptEngine engine = manager.getEngineByName(name);
+		if (engine==null) {
+			for (ScriptEngineFactory factory: this.factories) {
+				if (factory.getNames().contains(name)) {
+					engine = factory.getScriptEngine();
+					if (engine!=null) break;
+				}
+			}
+		}
+		if (engine!=null) this.stats.recordEngineCreation(System.nanoTime() - start);
+		return engine;
+	}
+
+	/**
+	 * @return A factory for virtual threads, or null if this JVM has none.
+	 */
+	private static ThreadFactory virtualThreadFactory() {
+		try {
+			// Go through the public Thread.Builder interface, the builder's own class is not accessible
+			Class<?> type = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method name = type.getMethod("name", String.class, long.class);
+			builder = name.invoke(builder, "trephine-virtual-", 0L);
+			return (ThreadFactory) type.getMethod("factory").invoke(builder);
+		} catch (Throwable t) {
+			Log.debug("VirtualPool:virtualThreadFactory()", "virtual threads unavailable - {}", t.toString());
+			return null;
+		}
+	}
+
+	/**
+	 * A pooled engine instance with its own compiled script cache, used by one job at a time.
+	 */
+	private static class Slot {
+		final String language;
+		final ScriptEngine engine;
+		final ScriptCache scripts;
+
+		Slot( String language, ScriptEngine engine, ScriptCache scripts ) {
+			this.language = language;
+			this.engine = engine;
+			this.scripts = scripts;
+		}
+
+		Object eval( String code, ScriptContext context ) throws ScriptException {
+			if (!(this.engine instanceof Compilable) || !this.scripts.isEnabled()) return this.engine.eval(code, context);
+			CompiledScript script = this.scripts.get(this.language, code);
+			if (script==null) {
+				script = ((Compilable) this.engine).compile(code);
+				this.scripts.put(this.language, code, script);
+			}
+			return script.eval(context);
+		}
+	}
+
+}
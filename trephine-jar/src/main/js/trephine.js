@@ -37,8 +37,25 @@ var trephine = new function(){
 				'width="0" height="0" mayscript="true">',
 				'<param name="onload" value="parent.trephine._finishLoading" />',
 				'<param name="onerror" value="parent.trephine._errorLoading" />',
+				'<param name="oncomplete" value="parent.trephine._completeAsync" />',
+				'<param name="onoutput" value="parent.trephine._outputAsync" />',
 				(options.debug ? '<param name="debug" value="true" />' : ''),
 				(options.engines ? '<param name="engines" value="' + options.engines.join(',') + '" />' : ''),
+				(function(){
+					var params = [];
+					for (var name in (options.warmup || {})) {
+						params.push('<param name="warmup.' + name + '" value="' + String(options.warmup[name]).replace(/&/g, '&amp;').replace(/"/g, '&quot;') + '" />');
+					}
+					return params.join('');
+				})(),
+				(options.workers ? '<param name="workers" value="' + options.workers + '" />' : ''),
+				(options.cache!=null ? '<param name="cache" value="' + options.cache + '" />' : ''),
+				(options.timeout ? '<param name="timeout" value="' + options.timeout + '" />' : ''),
+				(options.virtual ? '<param name="virtual" value="' + options.virtual.join(',') + '" />' : ''),
+				(options.queue ? '<param name="queue" value="' + options.queue + '" />' : ''),
+				(options.overload ? '<param name="overload" value="' + options.overload + '" />' : ''),
+				(options.flush!=null ? '<param name="flush" value="' + options.flush + '" />' : ''),
+				(options.modules ? '<param name="modules" value="' + options.modules.join(',') + '" />' : ''),
 				'</applet>',
 				'<script type="text/javascript">(',
 				function() {
@@ -94,23 +111,141 @@ var trephine = new function(){
 		};
 		document.body.appendChild(iframe);
 	};
-	this.exec = function(lang, code){
+	this.exec = function(lang, code, args, options){
+		if (!this.handler) return null;
+		if (args && Object.prototype.toString.apply(args) !== '[object Array]') { options = args; args = null; }
+		return this._unwrap(this.handler.exec(lang, code, args || null, this._options(options || {})));
+	};
+	// Jobs are shared fairly between callers; each page is one caller unless options.caller says otherwise
+	this.caller = String(window.location.href).split('#')[0];
+	this._options = function(options) {
+		var pairs = [];
+		if (options.caller==null && this.caller) pairs.push('caller=' + encodeURIComponent(this.caller));
+		for (var key in options) {
+			if (options[key]!=null) pairs.push(encodeURIComponent(key) + '=' + encodeURIComponent(options[key]));
+		}
+		return pairs.join('&');
+	};
+	this.execBatch = function(jobs, stopOnFailure){
 		if (!this.handler) return null;
-		var result = this.handler.exec(lang, code);
+		var langs = [], codes = [];
+		for (var i=0; i<jobs.length; i++) {
+			langs.push(jobs[i].lang != null ? jobs[i].lang : jobs[i][0]);
+			codes.push(jobs[i].code != null ? jobs[i].code : jobs[i][1]);
+		}
+		var list = this.handler.execBatch(langs, codes, !!stopOnFailure);
+		if (!list) return null;
+		// A batch which could not run at all comes back as one exec() tuple, led by its success flag rather than a tuple
+		if (list.size() > 0 && list.get(0).get === undefined) return [this._unwrap(list)];
+		var results = [];
+		for (var i=0; i<jobs.length; i++) results.push(this._unwrap(list.get(i)));
+		return results;
+	};
+	this._unwrap = function(result) {
+		if (!result) return null;
+		if (result.get===undefined) return this._parse(String(result));
 		return { success: result.get(0), result: result.get(1), error: result.get(2) };
 	};
+	this._parse = function(json) {
+		return (window.JSON && JSON.parse) ? JSON.parse(json) : eval('(' + json + ')');
+	};
+	// Source of the function which revives JSON arguments inside the engine (see js)
+	this._reviver = "function(json){ return (typeof JSON!='undefined' && JSON.parse) ? JSON.parse(json) : eval('(' + json + ')'); }";
+	this._callbacks = {};
+	this._watchers = {};
+	this.execAsync = function(lang, code, callback, options){
+		if (!this.handler) return null;
+		// Output is captured unless options.output is false, and can be read as it arrives with read('out') or read('err'),
+		// or handed to options.onoutput(text, stream) as the applet reports it
+		var opts = { output: true }, onoutput = null;
+		for (var key in (options || {})) {
+			if (key=='onoutput') onoutput = options[key];
+			else opts[key] = options[key];
+		}
+		var self = this, id = this.handler.execAsync(lang, code, this._options(opts));
+		if (id < 0) return null;
+		if (callback) {
+			this._callbacks[id] = callback;
+			// A quick job may have finished, and its completion call found no callback, before this registration
+			setTimeout(function(){ self._completeAsync(id); }, 0);
+		}
+		var cursors = { out: 0, err: 0 };
+		var handle = {
+			id: id,
+			poll: function() { return self._settle(id, self.handler.poll(id)); },
+			await: function(timeout) { return self._settle(id, self.handler.await(id, timeout || 0)); },
+			cancel: function() { return self.handler.cancel(id); },
+			read: function(stream) {
+				stream = stream || 'out';
+				var chunk = self.handler.readOutput(id, stream, cursors[stream]);
+				if (!chunk) return null;
+				chunk = self._parse(chunk + '');
+				cursors[stream] = chunk.next;
+				return chunk;
+			}
+		};
+		if (onoutput && opts.output!==false) this._watchers[id] = function() {
+			for (var stream in cursors) {
+				var chunk = handle.read(stream);
+				if (chunk && chunk.text) onoutput(chunk.text, stream);
+			}
+		};
+		return handle;
+	};
+	this._settle = function(id, result) {
+		if (!result) return null;
+		delete this._callbacks[id];
+		var watcher = this._watchers[id];
+		if (watcher) {
+			// Hand over whatever output arrived since the last notification
+			delete this._watchers[id];
+			watcher();
+		}
+		return this._unwrap(result);
+	};
+	this._completeAsync = function(id) {
+		var callback = trephine._callbacks[id];
+		if (!callback) return;
+		var result = trephine.handler.poll(id);
+		if (!result) return;
+		callback(trephine._settle(id, result));
+	};
+	this._outputAsync = function(id) {
+		var watcher = trephine._watchers[id];
+		if (watcher) watcher();
+	};
+	// Send a library once; scripts then load it with require(name) instead of carrying its source in every call
+	this.module = function(name, source, lang){ return (this.handler ? this.handler.registerModule(name, lang || 'js', source) : false); };
 	this.isPrivileged = function(){ return (this.handler ? this.handler.isPrivileged() : null); };
 	this.isDebugEnabled = function(){ return (this.handler ? this.handler.isDebugEnabled() : null); };
 	this.enableDebug = function(){ return (this.handler ? this.handler.enableDebug() : null); };
+	this.engineTimings = function(){ return (this.handler ? this._parse(String(this.handler.getEngineTimings())) : null); };
+	this.bootstrapTimings = function(){ return (this.handler ? this._parse(String(this.handler.getBootstrapTimings())) : null); };
+	this.stats = function(){ return (this.handler ? this._parse(String(this.handler.getStats())) : null); };
 	this.version = function(){ return (this.handler ? this.handler.getVersion() : null); };
 	this.js = function(code) {
 		if (!code) return { success:false, result: null, error: 'Code was null' };
 		if (typeof code!='function' && arguments.length<2) return trephine.exec('js', code);
 		if (typeof code=='function') code = '(' + code + ')';
 		else code = '(function(){' + code + '})';
-		var args = []; for (var i=1; i<arguments.length; i++) args.push(this.toJSON(arguments[i]));
-		code += '(' + args.join(',') + ')';
-		return trephine.exec('js', code);
+		// Arguments travel separately from the code, so repeated calls reuse one compiled script;
+		// only objects and arrays go as JSON text, revived on the other side by one shared function
+		// (JSON.parse where the engine has it), so the caller's code never contains an eval
+		var args = [], refs = [], revive = false;
+		for (var i=1; i<arguments.length; i++) {
+			var value = arguments[i], type = typeof value, ref = 'args[' + (i-1) + ']';
+			if (value==null || type=='string' || type=='number' || type=='boolean') {
+				args.push(value==null ? null : value);
+				refs.push(ref);
+			} else {
+				args.push(this.toJSON(value));
+				refs.push('$revive(' + ref + ')');
+				revive = true;
+			}
+		}
+		code += '(' + refs.join(',') + ')';
+		if (revive) code = '(function($revive){ return ' + code + '; })(' + this._reviver + ')';
+		return trephine.exec('js', code, args);
 	};
 	this.toJSON = (function(){
 		var f = function (n) { return n < 10 ? '0' + n : n; };
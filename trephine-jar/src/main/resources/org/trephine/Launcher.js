@@ -5,49 +5,72 @@
 (function(global) {
 	
 // Protecting references to globals (since they're shared across languages)
-var applet = global.applet, context = global.context, engine = global.engine, manager = global.manager;
+var applet = global.applet, context = global.context, engine = global.engine, manager = global.manager, bridge = global.bridge;
 
+// Arguments are only concatenated once debugging is known to be enabled
+var Log = Packages.org.trephine.Log;
 var debug = function() {
-	if (!applet.isDebugEnabled()) return;
-	for (var i=0; i<arguments.length; i++) java.lang.System.out.println("Launcher.js - " + arguments[i]);
+	if (!Log.isDebugEnabled()) return;
+	Log.debug("Launcher.js", Array.prototype.join.call(arguments, ''));
 }
 
 debug("START");
-debug("  applet = " + applet);
-debug("  context = " + context);
-debug("  engine = " + engine);
-debug("  manager = " + manager);
+debug("  applet = ", applet);
+debug("  context = ", context);
+debug("  engine = ", engine);
+debug("  manager = ", manager);
+debug("  bridge = ", bridge);
 
 debug("getting window refrence...");
-var window = global.window = Packages.netscape.javascript.JSObject.getWindow(applet);
-debug("  window = " + window);
+var window = global.window = bridge.getWindow();
+debug("  window = ", window);
 
 debug("setting up trephine object in DOM window and document...");
 var trephine = window.eval("window.trephine = { set: function(key,val) { this[key] = val; } };");
-debug("  trephine = " + trephine);
+debug("  trephine = ", trephine);
 
 debug("implementing Marshal...");
 var marshal = global.marshal = new Packages.org.trephine.Marshal({
 	getVersion: function() { return applet.getVersion() + ''; },
-	exec: function(lang, code) {
+	exec: function(lang, code, args, options) {
 		debug("marshal:exec() - START");
 		if (applet.isDestroyed()) return null;
-		var result = applet.exec(lang, code);
+		if (typeof args=='string') { options = args; args = null; }
+		var result = applet.exec(lang, code, args || null, options || null);
 		debug("marshal:exec() - END");
 		return result;
 	},
+	execBatch: function(langs, codes, stopOnFailure) {
+		if (applet.isDestroyed()) return null;
+		return applet.execBatch(langs, codes, stopOnFailure);
+	},
+	execAsync: function(lang, code, options) {
+		if (applet.isDestroyed()) return -1;
+		return applet.execAsync(lang, code, options || null);
+	},
+	poll: function(id) { return applet.poll(id); },
+	await: function(id, timeout) { return applet.await(id, timeout); },
+	cancel: function(id) { return applet.cancel(id); },
+	registerModule: function(name, lang, source) { return applet.registerModule(name, lang, source); },
+	readOutput: function(id, stream, from) {
+		var output = applet.readOutput(id, stream, from);
+		return output==null ? null : output + '';
+	},
+	getEngineTimings: function(){ return applet.getEngineTimings() + ''; },
+	getBootstrapTimings: function(){ return applet.getBootstrapTimings() + ''; },
+	getStats: function(){ return applet.getStats() + ''; },
 	isPrivileged: function(){ return applet.isPrivileged(); },
 	isDebugEnabled: function(){ return applet.isDebugEnabled(); },
 	enableDebug: function(){ return applet.enableDebug(); }
 });
-debug("  marshal = " + marshal);
+debug("  marshal = ", marshal);
 
 //TODO (maybe): Alter the dynamically created Proxy class (of which marshal is the singleton instance) and
 // change the ProtectionDomain's CodeSource to exactly match the DOM window's domain.
 
 debug("setting marshal reference...");
 trephine.call("set", ["marshal", marshal]);
-debug("  retrieved marshal object: " + window.eval("trephine.marshal"));
+if (Log.isDebugEnabled()) debug("  retrieved marshal object: ", window.eval("trephine.marshal"));
 
 debug("END");
 
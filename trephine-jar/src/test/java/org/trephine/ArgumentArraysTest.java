@@ -0,0 +1,36 @@
+package org.trephine;
+
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+import javax.script.SimpleScriptContext;
+
+import junit.framework.TestCase;
+
+public class ArgumentArraysTest extends TestCase {
+
+	private static final String TYPES = "typeof args[0] + ',' + typeof args[1] + ',' + typeof args[2] + ',' + args.length + ',' + args[0].length";
+
+	public void testRhinoEngine() throws Exception {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("rhino-nonjdk");
+		assertNotNull("js-engine.jar is on the test classpath", engine);
+		assertEquals("string,number,boolean,3,3", eval(engine, TYPES));
+		assertEquals("abc-1.5-true", eval(engine, "args.join('-')"));
+	}
+
+	/**
+	 * The JDK's own JavaScript engine, where there is one, must see the same arguments.
+	 */
+	public void testBuiltInEngine() throws Exception {
+		ScriptEngine engine = new ScriptEngineManager(null).getEngineByName("js");
+		if (engine==null) return;
+		assertEquals("string,number,boolean,3,3", eval(engine, TYPES));
+	}
+
+	private static Object eval( ScriptEngine engine, String code ) throws Exception {
+		ScriptContext context = new SimpleScriptContext();
+		Executor.bindArguments(engine, context, new Object[] {"abc", Double.valueOf(1.5), Boolean.TRUE});
+		return String.valueOf(engine.eval(code, context));
+	}
+
+}
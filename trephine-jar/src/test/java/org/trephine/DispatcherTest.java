@@ -0,0 +1,80 @@
+package org.trephine;
+
+import java.security.AllPermission;
+import java.security.CodeSource;
+import java.security.Permission;
+import java.security.PermissionCollection;
+import java.security.Permissions;
+import java.security.Policy;
+import java.security.ProtectionDomain;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class DispatcherTest extends TestCase {
+
+	private static final String CHECK = "java.security.Policy.getPolicy().implies(null, new java.security.AllPermission())";
+
+	private Policy original;
+	private Standalone host;
+
+	protected void setUp() throws Exception {
+		this.original = Policy.getPolicy();
+	}
+
+	protected void tearDown() throws Exception {
+		Policy.setPolicy(this.original);
+		if (this.host!=null) this.host.destroy();
+	}
+
+	/**
+	 * A job run for its caller because the queue is full must see the same permissions as one run by a worker,
+	 * even when the caller (like a LiveConnect thread) is outside the applet's thread group.
+	 */
+	public void testCallerRunsKeepsWorkerPermissions() throws Exception {
+		ThreadGroup applet = new ThreadGroup("applet");
+		ThreadGroup liveconnect = new ThreadGroup("liveconnect");
+		run(applet, new Runnable() {
+			public void run() {
+				host = new Standalone(1, 16);
+				host.start();
+			}
+		});
+		Policy.setPolicy(new ThreadOrientedPolicy(new DenyingPolicy(), this.host, applet));
+		this.host.setAdmission(1, Dispatcher.Overload.CALLER_RUNS);
+
+		Job blocker = this.host.submit(new Job("js", "java.lang.Thread.sleep(1000); true"));
+		while (blocker.getDequeueTime()==0 && !blocker.isFinished()) Thread.sleep(5);
+		Job queued = this.host.submit(new Job("js", CHECK));
+
+		final Object[] seen = new Object[2];
+		run(liveconnect, new Runnable() {
+			public void run() {
+				seen[0] = Boolean.valueOf(Policy.getPolicy().implies(null, new AllPermission()));
+				seen[1] = host.exec("js", CHECK);
+			}
+		});
+		assertEquals("the caller itself is unprivileged", Boolean.FALSE, seen[0]);
+		assertEquals(1, this.host.getStats().getCallerRuns());
+		List<?> overflow = (List<?>) seen[1];
+		assertEquals(Boolean.TRUE, overflow.get(0));
+		assertEquals(Boolean.TRUE, overflow.get(1));
+
+		assertTrue(queued.await(5000));
+		assertEquals(Boolean.TRUE, queued.getResult());
+	}
+
+	private static void run( ThreadGroup group, Runnable runnable ) throws InterruptedException {
+		Thread thread = new Thread(group, runnable);
+		thread.start();
+		thread.join();
+	}
+
+	private static class DenyingPolicy extends Policy {
+		public PermissionCollection getPermissions(CodeSource codesource) { return new Permissions(); }
+		public PermissionCollection getPermissions(ProtectionDomain domain) { return new Permissions(); }
+		public boolean implies(ProtectionDomain domain, Permission permission) { return false; }
+		public void refresh() {}
+	}
+
+}
@@ -0,0 +1,65 @@
+package org.trephine;
+
+import junit.framework.TestCase;
+
+public class HistogramTest extends TestCase {
+
+	public void testEmpty() {
+		Histogram histogram = new Histogram();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0.99));
+		assertEquals("{\"count\":0,\"p50\":0,\"p99\":0,\"max\":0}", histogram.toJSON());
+	}
+
+	public void testSmallValuesAreExact() {
+		Histogram histogram = new Histogram();
+		for (int micros=1; micros<=5; micros++) histogram.record(micros * 1000L);
+		histogram.record(-1);
+		assertEquals(5, histogram.getCount());
+		assertEquals(3, histogram.getPercentile(0.5));
+		assertEquals(5, histogram.getPercentile(1.0));
+		assertEquals(5, histogram.getMax());
+	}
+
+	public void testPercentilesWithinBucketError() {
+		Histogram histogram = new Histogram();
+		for (int micros=1; micros<=10000; micros++) histogram.record(micros * 1000L);
+		assertEquals(10000, histogram.getCount());
+		assertEquals(10000, histogram.getMax());
+		assertNear(5000, histogram.getPercentile(0.5));
+		assertNear(9900, histogram.getPercentile(0.99));
+		assertEquals("never above the largest value", 10000, histogram.getPercentile(1.0));
+	}
+
+	public void testHugeValues() {
+		Histogram histogram = new Histogram();
+		histogram.record(Long.MAX_VALUE);
+		assertEquals(Long.MAX_VALUE / 1000, histogram.getMax());
+		assertEquals(Long.MAX_VALUE / 1000, histogram.getPercentile(0.5));
+	}
+
+	public void testConcurrentRecording() throws Exception {
+		final Histogram histogram = new Histogram();
+		Thread[] threads = new Thread[4];
+		for (int t=0; t<threads.length; t++) {
+			threads[t] = new Thread() {
+				public void run() {
+					for (int i=0; i<10000; i++) histogram.record(i * 1000L);
+				}
+			};
+			threads[t].start();
+		}
+		for (Thread thread: threads) thread.join();
+		assertEquals(40000, histogram.getCount());
+		assertEquals(9999, histogram.getMax());
+	}
+
+	/**
+	 * Buckets are an eighth of a power of two wide, so a percentile may overshoot by up to 12.5%, never undershoot.
+	 */
+	private static void assertNear( long expected, long actual ) {
+		assertTrue(expected + " <= " + actual, actual>=expected);
+		assertTrue(actual + " within 12.5% of " + expected, actual<=expected + expected / 8);
+	}
+
+}
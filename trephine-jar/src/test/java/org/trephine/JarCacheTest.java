@@ -0,0 +1,87 @@
+package org.trephine;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class JarCacheTest extends TestCase {
+
+	private File root;
+
+	protected void setUp() throws Exception {
+		this.root = File.createTempFile("jarcache", "");
+		this.root.delete();
+		this.root.mkdirs();
+	}
+
+	protected void tearDown() throws Exception {
+		delete(this.root);
+	}
+
+	public void testJarsAreKeptApartBySourceAndVersion() throws Exception {
+		File site = new File(this.root, "site");
+		site.mkdirs();
+		write(new File(site, "a.jar"), "one");
+		String base = site.toURI().toURL().toString();
+		File cache = new File(this.root, "cache");
+
+		File first = new JarCache(cache, "1.0").fetch(base, new String[] {"a.jar"})[0];
+		assertEquals(3, first.length());
+
+		// A newer jar from a newer release is fetched, not mistaken for the cached one
+		write(new File(site, "a.jar"), "newer");
+		File second = new JarCache(cache, "1.1").fetch(base, new String[] {"a.jar"})[0];
+		assertFalse(first.equals(second));
+		assertEquals(5, second.length());
+		assertEquals(3, first.length());
+
+		// The same release from the same place reuses its copy
+		assertEquals(first, new JarCache(cache, "1.0").fetch(base, new String[] {"a.jar"})[0]);
+		assertEquals(3, first.length());
+	}
+
+	public void testDamagedJarIsFetchedAgain() throws Exception {
+		File site = new File(this.root, "site");
+		site.mkdirs();
+		write(new File(site, "a.jar"), "one");
+		String base = site.toURI().toURL().toString();
+		File cache = new File(this.root, "cache");
+		File jar = new JarCache(cache, "1.0").fetch(base, new String[] {"a.jar"})[0];
+		write(jar, "bad");
+		new JarCache(cache, "1.0").fetch(base, new String[] {"a.jar"});
+		assertEquals("one", read(jar));
+	}
+
+	private static void write( File file, String text ) throws IOException {
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			out.write(text.getBytes("UTF-8"));
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String read( File file ) throws IOException {
+		FileInputStream in = new FileInputStream(file);
+		try {
+			byte[] bytes = new byte[(int) file.length()];
+			int n = 0;
+			while (n<bytes.length) n += in.read(bytes, n, bytes.length - n);
+			return new String(bytes, "UTF-8");
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void delete( File file ) {
+		File[] children = file.listFiles();
+		if (children!=null) {
+			for (File child: children) delete(child);
+		}
+		file.delete();
+	}
+
+}
@@ -0,0 +1,64 @@
+package org.trephine;
+
+import junit.framework.TestCase;
+
+public class JobOptionsTest extends TestCase {
+
+	public void testEmpty() {
+		assertSame(JobOptions.NONE, JobOptions.parse(null));
+		assertSame(JobOptions.NONE, JobOptions.parse("  "));
+		Job job = JobOptions.NONE.applyTo(new Job("js", "1"));
+		assertNull(job.getOutput());
+		assertEquals(0, job.getInstructionLimit());
+		assertFalse(job.isJsonResult());
+	}
+
+	public void testParse() {
+		JobOptions options = JobOptions.parse("timeout=500&instructions=1000&caller=a%20b%26c&flag&=x&bad=%zz");
+		assertEquals(500, options.getLong("timeout", 0));
+		assertEquals("a b&c", options.get("caller"));
+		assertEquals("", options.get("flag"));
+		assertNull("malformed values are ignored", options.get("bad"));
+		assertEquals(7, JobOptions.parse("timeout=soon").getLong("timeout", 7));
+
+		Job job = options.applyTo(new Job("js", "1"));
+		assertEquals(500, job.getTimeout());
+		assertEquals(1000, job.getInstructionLimit());
+		assertEquals("a b&c", job.getCaller());
+	}
+
+	public void testLaneThreadAndResult() {
+		Job job = JobOptions.parse("priority=background&thread=virtual&result=json&depth=4&size=100").applyTo(new Job("js", "1"));
+		assertEquals(Scheduler.BACKGROUND, job.getLane());
+		assertTrue(job.isVirtual());
+		assertTrue(job.isJsonResult());
+		assertEquals(4, job.getJsonDepth());
+		assertEquals(100, job.getJsonSize());
+	}
+
+	public void testOutputForms() {
+		assertEquals(OutputBuffer.DEFAULT_CAPACITY, capacity("output=true"));
+		assertEquals(OutputBuffer.DEFAULT_CAPACITY, capacity("output="));
+		assertEquals(OutputBuffer.DEFAULT_CAPACITY, capacity("output"));
+		assertEquals(4096, capacity("output=4096"));
+		assertNull(JobOptions.parse("output=false").applyTo(new Job("js", "1")).getOutput());
+		assertNull(JobOptions.parse("output=0").applyTo(new Job("js", "1")).getOutput());
+		assertNull(JobOptions.parse("output=lots").applyTo(new Job("js", "1")).getOutput());
+	}
+
+	public void testOutputIsClamped() {
+		assertEquals(OutputBuffer.MAX_CAPACITY, capacity("output=" + (OutputBuffer.MAX_CAPACITY + 1)));
+		assertEquals(OutputBuffer.MAX_CAPACITY, capacity("output=" + Long.MAX_VALUE));
+	}
+
+	/**
+	 * @return How many characters the output buffer keeps, found by overfilling it.
+	 */
+	private static long capacity( String options ) {
+		OutputBuffer output = JobOptions.parse(options).applyTo(new Job("js", "1")).getOutput();
+		char[] chars = new char[OutputBuffer.MAX_CAPACITY + 10];
+		output.write(chars, 0, chars.length);
+		return output.read(0).text.length();
+	}
+
+}
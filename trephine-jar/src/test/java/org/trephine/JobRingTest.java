@@ -0,0 +1,81 @@
+package org.trephine;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class JobRingTest extends TestCase {
+
+	public void testCapacityIsRoundedUp() {
+		assertEquals(8, new JobRing(5).capacity());
+		assertEquals(1, new JobRing(1).capacity());
+	}
+
+	public void testFifoAndFull() {
+		JobRing ring = new JobRing(2);
+		Job a = new Job("js", "a"), b = new Job("js", "b"), c = new Job("js", "c");
+		assertTrue(ring.isEmpty());
+		assertTrue(ring.offer(a));
+		assertTrue(ring.offer(b));
+		assertFalse("ring is full", ring.offer(c));
+		assertEquals(2, ring.size());
+		assertSame(a, ring.poll());
+		assertTrue("slot is reused", ring.offer(c));
+		assertSame(b, ring.poll());
+		assertSame(c, ring.take());
+		assertNull(ring.poll());
+		assertTrue(ring.isEmpty());
+	}
+
+	public void testWrapsManyTimes() {
+		JobRing ring = new JobRing(4);
+		for (int i=0; i<1000; i++) {
+			Job job = new Job("js", Integer.toString(i));
+			assertTrue(ring.offer(job));
+			assertSame(job, ring.poll());
+		}
+	}
+
+	public void testTakeWaitsForProducer() throws Exception {
+		final JobRing ring = new JobRing(4);
+		final Job job = new Job("js", "late");
+		Thread producer = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					return;
+				}
+				ring.put(job);
+			}
+		};
+		producer.start();
+		assertSame(job, ring.take());
+		producer.join();
+	}
+
+	/**
+	 * Several producers, one consumer, a ring far smaller than the number of jobs: nothing is lost or duplicated.
+	 */
+	public void testConcurrentProducers() throws Exception {
+		final JobRing ring = new JobRing(8);
+		final int producers = 4, each = 2000;
+		Thread[] threads = new Thread[producers];
+		for (int p=0; p<producers; p++) {
+			final int id = p;
+			threads[p] = new Thread() {
+				public void run() {
+					for (int i=0; i<each; i++) ring.put(new Job("js", id + ":" + i));
+				}
+			};
+			threads[p].start();
+		}
+		Set<String> seen = new HashSet<String>();
+		for (int i=0; i<producers * each; i++) assertTrue(seen.add(ring.take().getCode()));
+		for (Thread thread: threads) thread.join();
+		assertTrue(ring.isEmpty());
+		assertEquals(producers * each, seen.size());
+	}
+
+}
@@ -0,0 +1,34 @@
+package org.trephine;
+
+import junit.framework.TestCase;
+
+public class JobTest extends TestCase {
+
+	public void testAwaitReturnsWhenInterrupted() {
+		Job job = new Job("js", "1");
+		Thread.currentThread().interrupt();
+		try {
+			long start = System.nanoTime();
+			assertFalse(job.await(2000));
+			assertTrue("gave up at once", System.nanoTime() - start < 1000000000L);
+			assertTrue("interrupt flag is kept", Thread.currentThread().isInterrupted());
+		} finally {
+			Thread.interrupted();
+		}
+	}
+
+	public void testAwaitSeesCompletion() throws Exception {
+		final Job job = new Job("js", "1");
+		Thread finisher = new Thread() {
+			public void run() {
+				job.start();
+				job.complete("done", null);
+			}
+		};
+		finisher.start();
+		assertTrue(job.await(0));
+		assertEquals("done", job.getResult());
+		assertFalse(job.cancel());
+	}
+
+}
@@ -0,0 +1,107 @@
+package org.trephine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import junit.framework.TestCase;
+
+public class JsonWriterTest extends TestCase {
+
+	// One property per object, since Rhino does not keep properties in the order they were defined
+	private static final String OBJECT = "[{ s: 'a\"b' }, { n: 1.5 }, { i: 2 }, { t: true }, { nil: null }, { list: [1, 'x', [false]] }, { f: function(){} }, { u: undefined }]";
+	private static final String EXPECTED = "[{\"s\":\"a\\\"b\"},{\"n\":1.5},{\"i\":2},{\"t\":true},{\"nil\":null},{\"list\":[1,\"x\",[false]]},{},{}]";
+
+	public void testScalars() {
+		assertEquals("null", write(null));
+		assertEquals("\"x\"", write("x"));
+		assertEquals("\"c\"", write(Character.valueOf('c')));
+		assertEquals("3", write(Integer.valueOf(3)));
+		assertEquals("3", write(Double.valueOf(3.0)));
+		assertEquals("0.25", write(Double.valueOf(0.25)));
+		assertEquals("null", write(Double.valueOf(Double.NaN)));
+		assertEquals("false", write(Boolean.FALSE));
+	}
+
+	public void testQuoting() {
+		assertEquals("\"q\\\"b\\\\n\\n\\t\\u0001\\u2028\"", JsonWriter.quote("q\"b\\n\n\t\u0001\u2028"));
+	}
+
+	public void testContainers() {
+		Map<String,Object> map = new LinkedHashMap<String,Object>();
+		map.put("a", Arrays.asList(Integer.valueOf(1), "two"));
+		map.put("b", new int[] {3, 4});
+		map.put("c", new LinkedHashMap<String,Object>());
+		assertEquals("{\"a\":[1,\"two\"],\"b\":[3,4],\"c\":{}}", write(map));
+	}
+
+	public void testCycleIsRejected() {
+		List<Object> list = new ArrayList<Object>();
+		list.add(list);
+		try {
+			write(list);
+			fail("cycle was written");
+		} catch (IllegalArgumentException e) {
+			assertTrue(e.getMessage().indexOf("cyclic")>=0);
+		}
+	}
+
+	public void testSharedValueIsNotACycle() {
+		List<Object> shared = Arrays.asList((Object) "x");
+		assertEquals("[[\"x\"],[\"x\"]]", write(Arrays.asList((Object) shared, shared)));
+	}
+
+	public void testLimits() {
+		List<Object> nested = new ArrayList<Object>();
+		nested.add(new ArrayList<Object>());
+		try {
+			JsonWriter.write(nested, 1, 100);
+			fail("depth limit ignored");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+		try {
+			JsonWriter.write("0123456789", 8, 5);
+			fail("size limit ignored");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Objects from whichever engine answers to "js" - js.jar's Rhino or the JDK's own - are written as JSON, never as "[object Object]".
+	 */
+	public void testScriptEngineObject() throws Exception {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("js");
+		assertNotNull(engine);
+		assertEquals(EXPECTED, write(engine.eval(OBJECT)));
+	}
+
+	public void testBuiltInEngineObject() throws Exception {
+		ScriptEngine engine = new ScriptEngineManager(null).getEngineByName("js");
+		if (engine==null || !engine.getClass().getName().startsWith("com.sun.script.javascript.")) return;
+		assertEquals(EXPECTED, write(engine.eval(OBJECT)));
+	}
+
+	/**
+	 * The reflective walk used for the JDK's copy of Rhino, pointed at js.jar's so it runs on any JVM.
+	 */
+	public void testReflectiveRhino() throws Exception {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("rhino-nonjdk");
+		Object value = engine.eval(OBJECT);
+		ReflectiveRhino rhino = new ReflectiveRhino("org.mozilla.javascript.", value.getClass().getClassLoader());
+		JsonWriter writer = new JsonWriter(JsonWriter.DEFAULT_DEPTH, JsonWriter.DEFAULT_SIZE);
+		rhino.write(writer, value, 0);
+		assertEquals(EXPECTED, writer.buffer().toString());
+	}
+
+	private static String write( Object value ) {
+		return JsonWriter.write(value, JsonWriter.DEFAULT_DEPTH, JsonWriter.DEFAULT_SIZE);
+	}
+
+}
@@ -0,0 +1,67 @@
+package org.trephine;
+
+import junit.framework.TestCase;
+
+public class OutputBufferTest extends TestCase {
+
+	public void testReadFollowsWrites() throws Exception {
+		OutputBuffer buffer = new OutputBuffer(16);
+		buffer.write("hello");
+		OutputBuffer.Chunk chunk = buffer.read(0);
+		assertEquals("hello", chunk.text);
+		assertEquals(5, chunk.next);
+		assertEquals(0, chunk.dropped);
+		buffer.write(" world");
+		chunk = buffer.read(chunk.next);
+		assertEquals(" world", chunk.text);
+		assertEquals(11, chunk.next);
+		assertEquals("", buffer.read(chunk.next).text);
+	}
+
+	public void testWraparoundKeepsTheTail() throws Exception {
+		OutputBuffer buffer = new OutputBuffer(8);
+		buffer.write("abcdef");
+		buffer.write("ghij");
+		assertEquals(10, buffer.getWritten());
+		OutputBuffer.Chunk chunk = buffer.read(0);
+		assertEquals("cdefghij", chunk.text);
+		assertEquals(2, chunk.dropped);
+		assertEquals(10, chunk.next);
+		chunk = buffer.read(7);
+		assertEquals("hij", chunk.text);
+		assertEquals(0, chunk.dropped);
+	}
+
+	public void testWriteLargerThanCapacity() throws Exception {
+		OutputBuffer buffer = new OutputBuffer(4);
+		buffer.write("ab");
+		buffer.write("0123456789");
+		OutputBuffer.Chunk chunk = buffer.read(0);
+		assertEquals("6789", chunk.text);
+		assertEquals(8, chunk.dropped);
+		assertEquals(12, chunk.next);
+	}
+
+	public void testManyWraps() throws Exception {
+		OutputBuffer buffer = new OutputBuffer(5);
+		StringBuilder all = new StringBuilder();
+		for (int i=0; i<100; i++) {
+			String s = Integer.toString(i);
+			buffer.write(s);
+			all.append(s);
+			assertEquals(all.substring(Math.max(0, all.length() - 5)), buffer.read(0).text);
+		}
+	}
+
+	public void testListener() throws Exception {
+		OutputBuffer buffer = new OutputBuffer(4);
+		final int[] calls = new int[1];
+		buffer.setListener(new Runnable() {
+			public void run() { calls[0]++; }
+		});
+		buffer.write("a");
+		buffer.write("bc");
+		assertEquals(2, calls[0]);
+	}
+
+}
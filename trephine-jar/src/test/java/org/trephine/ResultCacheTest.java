@@ -0,0 +1,137 @@
+package org.trephine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import javax.script.ScriptEngineManager;
+
+import junit.framework.TestCase;
+
+public class ResultCacheTest extends TestCase {
+
+	private Dispatcher dispatcher;
+	private ResultCache cache;
+
+	/**
+	 * The dispatcher's workers are never started, so shared executions are completed by hand.
+	 */
+	protected void setUp() throws Exception {
+		Host host = new Host() {
+			public boolean isPrivileged() { return true; }
+			public boolean isDestroyed() { return false; }
+		};
+		this.dispatcher = new Dispatcher(host, 1, 0, new HashMap<String,Object>());
+		this.cache = new ResultCache(4, this.dispatcher.getStats(), this.dispatcher);
+	}
+
+	public void testCachedUntilTtlExpires() throws Exception {
+		Job first = job("1+1", 100);
+		Job shared = this.cache.claim(first, "ECMAScript");
+		assertNotNull(shared);
+		assertNotSame(first, shared);
+		run(shared, "2");
+		assertEquals("2", first.getResult());
+		assertEquals(1, this.cache.size());
+
+		Job second = job("1+1", 100);
+		assertNull("answered from the cache", this.cache.claim(second, "ECMAScript"));
+		assertTrue(second.isFinished());
+		assertEquals("2", second.getResult());
+		assertEquals(1, this.dispatcher.getStats().getCacheHits());
+
+		Thread.sleep(150);
+		assertNotNull("expired", this.cache.claim(job("1+1", 100), "ECMAScript"));
+	}
+
+	public void testFailuresAreNotCached() {
+		Job first = job("boom()", 60000);
+		Job shared = this.cache.claim(first, "ECMAScript");
+		shared.start();
+		shared.complete(null, new RuntimeException("boom"));
+		assertNotNull(first.getException());
+		assertEquals(0, this.cache.size());
+	}
+
+	public void testKeyedOnCanonicalLanguageAndArguments() {
+		run(this.cache.claim(job("x", 60000), "ECMAScript"), "x");
+		assertNull(this.cache.claim(job("x", 60000), "ECMAScript"));
+		assertNotNull(this.cache.claim(job("x", 60000), "python"));
+		Job numeric = new Job("js", "x", new Object[] {Integer.valueOf(1)});
+		numeric.setCacheTtl(60000);
+		Job text = new Job("js", "x", new Object[] {"1"});
+		text.setCacheTtl(60000);
+		run(this.cache.claim(numeric, "ECMAScript"), "n");
+		assertNotNull("the string \"1\" is not the number 1", this.cache.claim(text, "ECMAScript"));
+	}
+
+	public void testLanguageNamesShareEntries() {
+		HashMap<String,Object> environment = new HashMap<String,Object>();
+		environment.put("manager", new ScriptEngineManager());
+		Dispatcher dispatcher = new Dispatcher(null, 1, 0, environment);
+		assertEquals("ECMAScript", dispatcher.canonicalLanguage(" js "));
+		assertEquals("ECMAScript", dispatcher.canonicalLanguage("javascript"));
+		assertEquals("nosuch", dispatcher.canonicalLanguage("nosuch"));
+	}
+
+	public void testUncacheableJobsPassThrough() {
+		Job object = new Job("js", "x", new Object[] {new ArrayList<Object>()});
+		object.setCacheTtl(60000);
+		assertSame(object, this.cache.claim(object, "ECMAScript"));
+		Job output = job("print(1)", 60000);
+		output.captureOutput(16);
+		assertSame(output, this.cache.claim(output, "ECMAScript"));
+	}
+
+	public void testInFlightSharing() {
+		Job first = job("slow()", 60000);
+		Job shared = this.cache.claim(first, "ECMAScript");
+		Job second = job("slow()", 60000);
+		Job third = job("slow()", 60000);
+		assertNull(this.cache.claim(second, "ECMAScript"));
+		assertNull(this.cache.claim(third, "ECMAScript"));
+		assertFalse(second.isFinished());
+		assertEquals(2, this.dispatcher.getStats().getSharedExecutions());
+		run(shared, "done");
+		assertEquals("done", first.getResult());
+		assertEquals("done", second.getResult());
+		assertEquals("done", third.getResult());
+	}
+
+	public void testMutableResultsAreNotShared() {
+		Job first = job("[]", 60000);
+		Job shared = this.cache.claim(first, "ECMAScript");
+		Job second = job("[]", 60000);
+		assertNull(this.cache.claim(second, "ECMAScript"));
+		ArrayList<Object> list = new ArrayList<Object>();
+		run(shared, list);
+		assertSame(list, first.getResult());
+		assertFalse("queued to run on its own", second.isFinished());
+		assertEquals(0, second.getCacheTtl());
+		assertEquals(1, this.dispatcher.getQueueDepth());
+		assertEquals(0, this.cache.size());
+	}
+
+	public void testCopyKeepsSettings() {
+		Job first = job("x", 60000);
+		first.setVirtual(true);
+		first.setTimeout(500);
+		first.setJsonResult(3, 100);
+		Job shared = this.cache.claim(first, "ECMAScript");
+		assertTrue(shared.isVirtual());
+		assertEquals(500, shared.getTimeout());
+		assertTrue(shared.isJsonResult());
+		assertEquals(0, shared.getCacheTtl());
+	}
+
+	private static Job job( String code, long ttl ) {
+		Job job = new Job("js", code);
+		job.setCacheTtl(ttl);
+		return job;
+	}
+
+	private static void run( Job job, Object result ) {
+		assertTrue(job.start());
+		job.complete(result, null);
+	}
+
+}
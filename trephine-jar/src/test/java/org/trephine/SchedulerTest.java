@@ -0,0 +1,73 @@
+package org.trephine;
+
+import junit.framework.TestCase;
+
+public class SchedulerTest extends TestCase {
+
+	public void testInteractiveBeforeBackground() {
+		Scheduler scheduler = new Scheduler(new JobRing(16), 16);
+		Job background = job("page", Scheduler.BACKGROUND);
+		Job interactive = job("page", Scheduler.INTERACTIVE);
+		scheduler.put(background);
+		scheduler.put(interactive);
+		assertEquals(1, scheduler.size(Scheduler.BACKGROUND));
+		assertEquals(2, scheduler.size());
+		assertSame(interactive, scheduler.take());
+		assertSame(background, scheduler.take());
+		assertTrue(scheduler.isEmpty());
+	}
+
+	public void testBackgroundIsNotStarved() {
+		Scheduler scheduler = new Scheduler(new JobRing(64), 64);
+		Job background = job("page", Scheduler.BACKGROUND);
+		scheduler.put(background);
+		for (int i=0; i<20; i++) scheduler.put(job("page", Scheduler.INTERACTIVE));
+		int position = 0;
+		while (scheduler.take()!=background) position++;
+		assertEquals("let through after a share of interactive jobs", 8, position);
+	}
+
+	public void testRoundRobinByCaller() {
+		Scheduler scheduler = new Scheduler(new JobRing(16), 16);
+		Job a1 = job("a", Scheduler.INTERACTIVE), a2 = job("a", Scheduler.INTERACTIVE), a3 = job("a", Scheduler.INTERACTIVE);
+		Job b1 = job("b", Scheduler.INTERACTIVE), c1 = job("c", Scheduler.INTERACTIVE), b2 = job("b", Scheduler.INTERACTIVE);
+		scheduler.put(a1);
+		scheduler.put(a2);
+		scheduler.put(a3);
+		scheduler.put(b1);
+		scheduler.put(c1);
+		scheduler.put(b2);
+		assertSame(a1, scheduler.take());
+		assertSame(b1, scheduler.take());
+		assertSame(c1, scheduler.take());
+		assertSame(a2, scheduler.take());
+		assertSame(b2, scheduler.take());
+		assertSame(a3, scheduler.take());
+	}
+
+	public void testOfferWhenRingIsFull() {
+		Scheduler scheduler = new Scheduler(new JobRing(2), 1);
+		assertTrue(scheduler.offer(job("a", Scheduler.INTERACTIVE)));
+		assertTrue(scheduler.offer(job("a", Scheduler.INTERACTIVE)));
+		assertFalse(scheduler.offer(job("a", Scheduler.BACKGROUND)));
+		assertEquals(0, scheduler.size(Scheduler.BACKGROUND));
+		assertEquals(2, scheduler.size());
+	}
+
+	public void testDoneComesLast() {
+		Scheduler scheduler = new Scheduler(new JobRing(8), 8);
+		Job job = job("a", Scheduler.BACKGROUND);
+		scheduler.put(job);
+		scheduler.put(Job.DONE);
+		assertSame(job, scheduler.take());
+		assertSame(Job.DONE, scheduler.take());
+	}
+
+	private static Job job( String caller, int lane ) {
+		Job job = new Job("js", "1");
+		job.setCaller(caller);
+		job.setLane(lane);
+		return job;
+	}
+
+}
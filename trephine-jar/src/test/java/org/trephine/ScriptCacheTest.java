@@ -0,0 +1,52 @@
+package org.trephine;
+
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineManager;
+
+import junit.framework.TestCase;
+
+public class ScriptCacheTest extends TestCase {
+
+	private Compilable compiler;
+
+	protected void setUp() throws Exception {
+		ScriptEngine engine = new ScriptEngineManager().getEngineByName("rhino-nonjdk");
+		assertNotNull("js-engine.jar is on the test classpath", engine);
+		this.compiler = (Compilable) engine;
+	}
+
+	public void testHitsAndMisses() throws Exception {
+		ScriptCache cache = new ScriptCache(4);
+		CompiledScript script = this.compiler.compile("1+1");
+		assertNull(cache.get("ECMAScript", "1+1"));
+		cache.put("ECMAScript", "1+1", script);
+		assertSame(script, cache.get("ECMAScript", "1+1"));
+		assertNull("keyed on language too", cache.get("python", "1+1"));
+		assertEquals(1, cache.getHits());
+		assertEquals(2, cache.getMisses());
+		assertEquals(2, ((Number) cache.get("ECMAScript", "1+1").eval()).intValue());
+	}
+
+	public void testLeastRecentlyUsedIsEvicted() throws Exception {
+		ScriptCache cache = new ScriptCache(2);
+		cache.put("ECMAScript", "a", this.compiler.compile("1"));
+		cache.put("ECMAScript", "b", this.compiler.compile("2"));
+		assertNotNull(cache.get("ECMAScript", "a"));
+		cache.put("ECMAScript", "c", this.compiler.compile("3"));
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getEvictions());
+		assertNull("b was least recently used", cache.get("ECMAScript", "b"));
+		assertNotNull(cache.get("ECMAScript", "a"));
+		assertNotNull(cache.get("ECMAScript", "c"));
+	}
+
+	public void testDisabled() throws Exception {
+		ScriptCache cache = new ScriptCache(0);
+		assertFalse(cache.isEnabled());
+		cache.put("ECMAScript", "a", this.compiler.compile("1"));
+		assertEquals(0, cache.size());
+	}
+
+}